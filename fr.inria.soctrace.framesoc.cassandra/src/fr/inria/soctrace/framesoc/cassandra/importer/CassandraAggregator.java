@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.importer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.datastax.driver.core.PreparedStatement;
+
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSession;
+import fr.inria.soctrace.lib.model.utils.ModelConstants.EventCategory;
+
+/**
+ * Compute the content of the aggregate tables while importing the events, and write it at the
+ * end of the import.
+ *
+ * <p>
+ * Each event is counted in the aggregate bucket of its start timestamp. The duration of each
+ * state is added to the busy time of its producer, split among the aggregate buckets it
+ * intersects. Nested states are counted as many times as they are nested.
+ *
+ * <p>
+ * The aggregator also keeps the longest state or link duration, used by the loader to bound the
+ * lookup of the events open at the start of a window with the ID layout. It is written whether
+ * or not the aggregate tables exist.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraAggregator {
+
+	private final CassandraSchema schema;
+
+	// bucket -> type/producer id -> value
+	private final Map<Long, Map<Integer, long[]>> counts = new TreeMap<>();
+	private final Map<Long, Map<Integer, long[]>> busy = new TreeMap<>();
+
+	private long maxSpan = 0;
+
+	public CassandraAggregator(CassandraSchema schema) {
+		this.schema = schema;
+	}
+
+	/**
+	 * Account for an event.
+	 */
+	public void addEvent(int typeId, int producerId, int category, long timestamp,
+			long endTimestamp) {
+		if (category == EventCategory.STATE || category == EventCategory.LINK) {
+			maxSpan = Math.max(maxSpan, endTimestamp - timestamp);
+		}
+		if (!schema.hasAggregates()) {
+			return;
+		}
+		add(counts, schema.getAggregateBucket(timestamp), typeId, 1);
+		if (category != EventCategory.STATE || endTimestamp <= timestamp) {
+			return;
+		}
+		long duration = schema.getAggregateDuration();
+		long start = timestamp;
+		for (long b = schema.getAggregateBucket(timestamp); start < endTimestamp; b++) {
+			long end = Math.min(endTimestamp, (b + 1) * duration);
+			add(busy, b, producerId, end - start);
+			start = end;
+		}
+	}
+
+	/**
+	 * Add the values computed by another aggregator on the same schema.
+	 * 
+	 * @param other
+	 *            other aggregator
+	 */
+	public void merge(CassandraAggregator other) {
+		merge(counts, other.counts);
+		merge(busy, other.busy);
+		maxSpan = Math.max(maxSpan, other.maxSpan);
+	}
+
+	/**
+	 * Write the aggregate tables and the longest duration.
+	 *
+	 * @param session
+	 *            Cassandra session
+	 * @param batcher
+	 *            batcher used to send the inserts (the caller must flush it)
+	 * @throws InterruptedException
+	 */
+	public void write(CassandraSession session, CassandraBatcher batcher)
+			throws InterruptedException {
+		batcher.add(schema.bindMaxSpan(session, maxSpan));
+		if (!schema.hasAggregates()) {
+			return;
+		}
+		write(batcher, session.prepare(schema.getInsertTypeCount()), counts);
+		write(batcher, session.prepare(schema.getInsertProducerBusy()), busy);
+	}
+
+	private void write(CassandraBatcher batcher, PreparedStatement ps,
+			Map<Long, Map<Integer, long[]>> values) throws InterruptedException {
+		for (Map.Entry<Long, Map<Integer, long[]>> bucket : values.entrySet()) {
+			long b = bucket.getKey();
+			long slice = schema.getAggregateSlice(b);
+			for (Map.Entry<Integer, long[]> v : bucket.getValue().entrySet()) {
+				batcher.add(schema.bind(ps, slice, b, v.getKey(), v.getValue()[0]));
+			}
+		}
+	}
+
+	private void merge(Map<Long, Map<Integer, long[]>> values,
+			Map<Long, Map<Integer, long[]>> other) {
+		for (Map.Entry<Long, Map<Integer, long[]>> bucket : other.entrySet()) {
+			for (Map.Entry<Integer, long[]> v : bucket.getValue().entrySet()) {
+				add(values, bucket.getKey(), v.getKey(), v.getValue()[0]);
+			}
+		}
+	}
+
+	private void add(Map<Long, Map<Integer, long[]>> values, long bucket, int id, long value) {
+		Map<Integer, long[]> ids = values.get(bucket);
+		if (ids == null) {
+			ids = new HashMap<>();
+			values.put(bucket, ids);
+		}
+		long[] v = ids.get(id);
+		if (v == null) {
+			v = new long[1];
+			ids.put(id, v);
+		}
+		v[0] += value;
+	}
+
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.importer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.Statement;
+
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema.Layout;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSession;
+
+/**
+ * Group insert statements into UNLOGGED batches before sending them to a
+ * {@link CassandraBulkWriter}.
+ *
+ * <p>
+ * Statements are grouped by partition key, so that a batch is applied by a single replica set
+ * without the coordinator having to forward its rows. With the {@link Grouping#REPLICA} grouping,
+ * statements are grouped by their primary replica instead: this is useful when partitions hold
+ * very few rows (e.g., one event per partition), at the price of batches spanning several
+ * partitions on the same node. It is the default grouping of the ID layout, where grouping by
+ * partition would never batch anything.
+ *
+ * <p>
+ * A group is sent as soon as it reaches the batch size. When too many statements are buffered in
+ * incomplete groups, all the groups are sent.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraBatcher {
+
+	public static final int DEFAULT_BATCH_SIZE = 50;
+
+	/**
+	 * Max number of buffered statements, as a multiple of the batch size
+	 */
+	private static final int MAX_BUFFERED_BATCHES = 64;
+
+	/**
+	 * Statement grouping policy
+	 */
+	public static enum Grouping {
+		/** Statements having the same partition key */
+		PARTITION,
+		/** Statements having the same primary replica */
+		REPLICA;
+	}
+
+	/**
+	 * Get the grouping to use when none is configured: {@link Grouping#REPLICA} for the ID
+	 * layout (one event per partition), {@link Grouping#PARTITION} otherwise.
+	 *
+	 * @param layout
+	 *            EVENT table layout
+	 * @return the default grouping
+	 */
+	public static Grouping getDefaultGrouping(Layout layout) {
+		return (layout == Layout.ID) ? Grouping.REPLICA : Grouping.PARTITION;
+	}
+
+	private final CassandraSession session;
+	private final CassandraBulkWriter writer;
+	private final int batchSize;
+	private final Grouping grouping;
+	private final int maxBuffered;
+
+	private final Map<Object, List<Statement>> groups = new HashMap<>();
+	private int buffered = 0;
+
+	public CassandraBatcher(CassandraSession session, CassandraBulkWriter writer, int batchSize,
+			Grouping grouping) {
+		this.session = session;
+		this.writer = writer;
+		this.batchSize = Math.max(1, batchSize);
+		this.grouping = grouping;
+		this.maxBuffered = this.batchSize * MAX_BUFFERED_BATCHES;
+	}
+
+	/**
+	 * Add a statement, sending its group if full.
+	 *
+	 * @param statement
+	 *            insert statement
+	 * @throws InterruptedException
+	 */
+	public void add(Statement statement) throws InterruptedException {
+		Object key = getGroupKey(statement);
+		if (key == null || batchSize == 1) {
+			// unknown routing, send it alone
+			writer.write(statement);
+			return;
+		}
+		List<Statement> group = groups.get(key);
+		if (group == null) {
+			group = new ArrayList<>(batchSize);
+			groups.put(key, group);
+		}
+		group.add(statement);
+		buffered++;
+		if (group.size() >= batchSize) {
+			groups.remove(key);
+			send(group);
+		} else if (buffered >= maxBuffered) {
+			flush();
+		}
+	}
+
+	/**
+	 * Send all the incomplete groups. This does not wait for the writes to complete: use
+	 * {@link CassandraBulkWriter#flush()} for that.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void flush() throws InterruptedException {
+		Iterator<List<Statement>> it = groups.values().iterator();
+		while (it.hasNext()) {
+			List<Statement> group = it.next();
+			it.remove();
+			send(group);
+		}
+	}
+
+	private void send(List<Statement> group) throws InterruptedException {
+		buffered -= group.size();
+		if (group.size() == 1) {
+			writer.write(group.get(0));
+			return;
+		}
+		BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+		batch.addAll(group);
+		writer.write(batch);
+	}
+
+	private Object getGroupKey(Statement statement) {
+		ByteBuffer routingKey = statement.getRoutingKey();
+		if (routingKey == null) {
+			return null;
+		}
+		if (grouping == Grouping.PARTITION) {
+			return routingKey;
+		}
+		Set<Host> replicas = session.getReplicas(routingKey);
+		if (replicas.isEmpty()) {
+			return null;
+		}
+		return replicas.iterator().next();
+	}
+
+}
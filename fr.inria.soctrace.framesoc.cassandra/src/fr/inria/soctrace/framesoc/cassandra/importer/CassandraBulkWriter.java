@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.importer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.QueryExecutionException;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSession;
+import fr.inria.soctrace.lib.model.utils.SoCTraceException;
+
+/**
+ * Asynchronous writer keeping a bounded number of writes in flight.
+ *
+ * <p>
+ * Each call to {@link #write(Statement)} takes a place in the in-flight window, which is freed
+ * when the corresponding future completes, so the caller blocks as soon as the window is full.
+ * Writes failing with a timeout or an unavailable cluster are sent again, up to
+ * {@code maxRetries} times, after an exponential backoff (RETRY_DELAY ms, doubled at each
+ * attempt, up to MAX_RETRY_DELAY ms): the retries are scheduled on a timer thread, not sent
+ * from the driver I/O thread, and leave the overloaded nodes some time to recover.
+ * {@link #flush()} waits for all the pending writes.
+ *
+ * <p>
+ * Not to starve the other workloads of a shared cluster, the writes can be limited to a max
+ * number of rows per second ({@link #setMaxRate(double)}), and the window can adapt to the
+ * cluster load ({@link #setTargetLatency(long)}): it starts at {@code maxInFlight}, is halved
+ * when a write times out or takes longer than the target latency, and grows by one after each
+ * window of fast writes (additive increase, multiplicative decrease). The window is decreased
+ * at most once per window of completed writes, so that a burst of slow answers to writes sent
+ * together counts as a single congestion signal. The rate limit is applied when a write is
+ * submitted: retries bypass it, so the actual rate can exceed the max rate by the retried rows,
+ * which are bounded by the window and slowed down by the retry backoff.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraBulkWriter {
+
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(CassandraBulkWriter.class);
+
+	public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+	public static final int DEFAULT_MAX_RETRIES = 3;
+	public static final long DEFAULT_TARGET_LATENCY = 100;
+
+	// smallest adaptive window
+	private static final int MIN_WINDOW = 2;
+
+	// retry backoff, in ms
+	private static final long RETRY_DELAY = 100;
+	private static final long MAX_RETRY_DELAY = 10000;
+
+	private static final ScheduledExecutorService retryScheduler = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+					.setNameFormat("cassandra-write-retry").setDaemon(true).build());
+
+	private final CassandraSession session;
+	private final int maxInFlight;
+	private final int maxRetries;
+	private ConsistencyLevel consistency = null;
+	private RateLimiter rateLimiter = null;
+
+	// in-flight window, guarded by lock
+	private final Object lock = new Object();
+	private int inFlight = 0;
+	private int window;
+	private volatile long targetLatency = 0;
+	private int acked = 0;
+	private int sinceDecrease;
+
+	// statistics
+	private final AtomicLong written = new AtomicLong(0);
+	private final AtomicLong failed = new AtomicLong(0);
+	private final AtomicLong retries = new AtomicLong(0);
+	private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+	// written by the writer threads and read by any thread
+	private volatile long startTime = -1;
+	private volatile long endTime = -1;
+
+	public CassandraBulkWriter(CassandraSession session, int maxInFlight, int maxRetries) {
+		this.session = session;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.maxRetries = Math.max(0, maxRetries);
+		this.window = this.maxInFlight;
+		this.sinceDecrease = this.maxInFlight;
+	}
+
+	/**
+	 * Set the consistency level of the writes.
+	 * 
+	 * @param consistency
+	 *            consistency level, or null to use the statement one
+	 */
+	public void setConsistencyLevel(ConsistencyLevel consistency) {
+		this.consistency = consistency;
+	}
+
+	/**
+	 * Limit the number of rows submitted per second. Retried writes bypass the limit.
+	 * 
+	 * @param rowsPerSecond
+	 *            max rate, 0 for no limit
+	 */
+	public void setMaxRate(double rowsPerSecond) {
+		rateLimiter = (rowsPerSecond > 0) ? RateLimiter.create(rowsPerSecond) : null;
+	}
+
+	/**
+	 * Adapt the in-flight window to the write latency.
+	 * 
+	 * @param targetLatency
+	 *            latency in ms above which the window is decreased, 0 for a fixed window of
+	 *            {@code maxInFlight} writes
+	 */
+	public void setTargetLatency(long targetLatency) {
+		synchronized (lock) {
+			this.targetLatency = Math.max(0, targetLatency);
+			if (this.targetLatency == 0) {
+				window = maxInFlight;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return the current in-flight window
+	 */
+	public int getWindow() {
+		synchronized (lock) {
+			return window;
+		}
+	}
+
+	/**
+	 * Send a write, blocking while the in-flight window is full.
+	 *
+	 * @param statement
+	 *            write statement
+	 * @throws InterruptedException
+	 */
+	public void write(Statement statement) throws InterruptedException {
+		if (startTime < 0) {
+			// concurrent first writes set nearly the same time
+			startTime = System.currentTimeMillis();
+		}
+		if (rateLimiter != null) {
+			rateLimiter.acquire(rows(statement));
+		}
+		synchronized (lock) {
+			while (inFlight >= window) {
+				lock.wait();
+			}
+			inFlight++;
+		}
+		if (consistency != null) {
+			statement.setConsistencyLevel(consistency);
+		}
+		send(statement, 0);
+	}
+
+	/**
+	 * Wait for all the pending writes to complete.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void flush() throws InterruptedException {
+		synchronized (lock) {
+			while (inFlight > 0) {
+				lock.wait();
+			}
+		}
+		endTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Wait for all the pending writes and check that they all succeeded.
+	 *
+	 * @throws SoCTraceException
+	 *             if some writes failed after all the retries
+	 */
+	public void close() throws SoCTraceException {
+		try {
+			flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SoCTraceException("Interrupted while waiting for pending writes", e);
+		}
+		if (failed.get() > 0) {
+			throw new SoCTraceException(failed.get() + " rows not written", firstError.get());
+		}
+	}
+
+	/**
+	 * @return the number of rows written, counting each statement of a batch
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * @return the number of rows written per second, between the first write and the last flush
+	 */
+	public double getWriteRate() {
+		long start = startTime;
+		long end = endTime;
+		if (start < 0) {
+			return 0;
+		}
+		long elapsed = Math.max(1, ((end < 0) ? System.currentTimeMillis() : end) - start);
+		return written.get() * 1000.0 / elapsed;
+	}
+
+	private void send(final Statement statement, final int attempt) {
+		final int rows = rows(statement);
+		final long start = System.nanoTime();
+		FutureCallback<ResultSet> callback = new FutureCallback<ResultSet>() {
+			@Override
+			public void onSuccess(ResultSet result) {
+				written.addAndGet(rows);
+				long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				complete(targetLatency > 0 && latency > targetLatency);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				if (attempt < maxRetries && isRetryable(t)) {
+					retries.incrementAndGet();
+					logger.debug("Retrying write (attempt {}): {}", attempt + 1, t.getMessage());
+					// the place in the window is kept by the retried write
+					congestion();
+					retryScheduler.schedule(new Runnable() {
+						@Override
+						public void run() {
+							send(statement, attempt + 1);
+						}
+					}, getRetryDelay(attempt), TimeUnit.MILLISECONDS);
+					return;
+				}
+				logger.error("Write failed: {}", t.getMessage());
+				failed.addAndGet(rows);
+				firstError.compareAndSet(null, t);
+				complete(isRetryable(t));
+			}
+		};
+		ResultSetFuture future;
+		try {
+			future = session.executeAsync(statement);
+		} catch (RuntimeException e) {
+			// the place in the window must be freed (or kept for a retry) as for an async failure
+			callback.onFailure(e);
+			return;
+		}
+		Futures.addCallback(future, callback);
+	}
+
+	/**
+	 * Free the place of a completed write in the window, and adapt the window.
+	 * 
+	 * @param slow
+	 *            true if the write took too long or failed because of the cluster load
+	 */
+	private void complete(boolean slow) {
+		synchronized (lock) {
+			inFlight--;
+			if (slow) {
+				congestion();
+			} else if (targetLatency > 0) {
+				sinceDecrease++;
+				if (++acked >= window) {
+					acked = 0;
+					window = Math.min(maxInFlight, window + 1);
+				}
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Halve the window, unless it was already decreased during the last window of writes.
+	 */
+	private void congestion() {
+		synchronized (lock) {
+			if (targetLatency == 0 || sinceDecrease < window) {
+				return;
+			}
+			window = Math.max(MIN_WINDOW, window / 2);
+			sinceDecrease = 0;
+			acked = 0;
+			logger.debug("Write window decreased to {}", window);
+		}
+	}
+
+	/**
+	 * @return the delay in ms before the retry following a given attempt
+	 */
+	private static long getRetryDelay(int attempt) {
+		return Math.min(MAX_RETRY_DELAY, RETRY_DELAY << Math.min(attempt, 16));
+	}
+
+	private static int rows(Statement statement) {
+		return (statement instanceof BatchStatement) ? ((BatchStatement) statement).size() : 1;
+	}
+
+	private boolean isRetryable(Throwable t) {
+		return (t instanceof QueryExecutionException) || (t instanceof NoHostAvailableException);
+	}
+
+}
@@ -13,8 +13,22 @@ package fr.inria.soctrace.framesoc.cassandra.importer;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
+import com.datastax.driver.core.ConsistencyLevel;
+
+import fr.inria.soctrace.framesoc.cassandra.importer.CassandraBatcher.Grouping;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraLoaderConfig;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema.Layout;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSession;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraTableOptions;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraTableOptions.Profile;
+import fr.inria.soctrace.framesoc.core.FramesocManager;
+import fr.inria.soctrace.lib.model.utils.SoCTraceException;
+
 /**
  * Configuration manager corresponding to a file with the following format:
  * 
@@ -24,6 +38,11 @@ import java.util.Properties;
  * 
  * See the file cassandra_importer.conf as an example.
  * 
+ * This file only describes the imported trace and how it is written. The connection to the
+ * cluster (contact points, port, native protocol compression, pooling, ...) is the one of the
+ * loader: it is configured with the {@link CassandraLoaderConfig} properties, shared by the
+ * importers and the loader.
+ * 
  * @author "Generoso Pagano <generoso.pagano@inria.fr>"
  */
 public class CassandraImporterConfig {
@@ -31,9 +50,64 @@ public class CassandraImporterConfig {
 	public static enum Property {
 		EVENTS,
 		PRODUCERS,
-		TYPES;		
+		TYPES,
+		/** Max number of asynchronous writes waiting for an answer */
+		MAX_IN_FLIGHT,
+		/** Max number of times a failed write is sent again */
+		MAX_RETRIES,
+		/** Number of inserts per UNLOGGED batch (1 disables batching) */
+		BATCH_SIZE,
+		/** Batch grouping: PARTITION or REPLICA */
+		BATCH_GROUPING,
+		/** EVENT table layout: ID, TIME_BUCKET or TIME_BUCKET_PRODUCER */
+		LAYOUT,
+		/** Time bucket duration, for bucketed layouts */
+		BUCKET_DURATION,
+		/** Consistency level of the writes */
+		WRITE_CONSISTENCY,
+		/** Keyspace replication strategy: SimpleStrategy or NetworkTopologyStrategy */
+		REPLICATION_STRATEGY,
+		/** Replication factor, for SimpleStrategy */
+		REPLICATION_FACTOR,
+		/** Replication factor per datacenter, for NetworkTopologyStrategy (dc1:3,dc2:2) */
+		REPLICATION_DATACENTERS,
+		/** Bucket duration of the aggregate tables (0 disables them) */
+		AGGREGATE_DURATION,
+		/** Framesoc database name of the trace to migrate */
+		SOURCE_DB,
+		/** Number of threads reading the trace to migrate */
+		READ_THREADS,
+		/** EVENT table storage profile: DEFAULT, TIME_SERIES or READ_OPTIMIZED */
+		TABLE_PROFILE,
+		/** EVENT table compaction map, replacing the one of the profile */
+		COMPACTION,
+		/** EVENT table compression map, replacing the one of the profile */
+		TABLE_COMPRESSION,
+		/** EVENT table bloom filter false positive chance, replacing the one of the profile */
+		BLOOM_FILTER_FP_CHANCE,
+		/** EVENT table caching map, replacing the one of the profile */
+		CACHING,
+		/** Keyspace shared by the imported traces (one keyspace per trace if not set) */
+		SHARED_KEYSPACE,
+		/** Trace file to import (a fake trace is generated if not set) */
+		TRACE_FILE,
+		/** Number of threads writing the records of the trace file */
+		WRITE_THREADS,
+		/** Max number of record blocks read from the trace file and waiting for a writer */
+		QUEUE_SIZE,
+		/** Max number of rows written per second (0 for no limit) */
+		MAX_WRITE_RATE,
+		/** Adapt the number of writes in flight to the cluster load (true or false) */
+		ADAPTIVE_WINDOW,
+		/** Write latency in ms above which the adaptive window is decreased */
+		TARGET_LATENCY;
 	}
 	
+	// default number of events per time bucket
+	private static final long BUCKET_EVENTS = 100000;
+	// default number of aggregate buckets in the trace
+	private static final long AGGREGATE_BUCKETS = 10000;
+
 	private Properties config = new Properties();
 	
 	public boolean load(String path) {
@@ -52,8 +126,192 @@ public class CassandraImporterConfig {
 	}
 	
 	public String get(Property var) {
-		System.out.println("P: " + config.getProperty(var.name()));
 		return config.getProperty(var.name());
 	}
-	
+
+	/**
+	 * Get an integer property.
+	 * 
+	 * @param var
+	 *            property
+	 * @param defaultValue
+	 *            value returned if the property is not set
+	 * @return the property value
+	 */
+	public int getInt(Property var, int defaultValue) {
+		String value = config.getProperty(var.name());
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return Integer.valueOf(value.trim());
+	}
+
+	/**
+	 * Get a long property.
+	 * 
+	 * @param var
+	 *            property
+	 * @param defaultValue
+	 *            value returned if the property is not set
+	 * @return the property value
+	 */
+	public long getLong(Property var, long defaultValue) {
+		String value = config.getProperty(var.name());
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return Long.valueOf(value.trim());
+	}
+
+	/**
+	 * Get an enum property.
+	 * 
+	 * @param var
+	 *            property
+	 * @param defaultValue
+	 *            value returned if the property is not set
+	 * @return the property value
+	 */
+	public <T extends Enum<T>> T getEnum(Property var, T defaultValue) {
+		String value = config.getProperty(var.name());
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase());
+	}
+
+	/**
+	 * Build the schema of a new trace keyspace from the configuration.
+	 * 
+	 * @param duration
+	 *            trace duration
+	 * @param events
+	 *            number of events of the trace
+	 * @return the schema
+	 * @throws SoCTraceException
+	 */
+	public CassandraSchema getSchema(long duration, long events) throws SoCTraceException {
+		long bucketDuration = getLong(Property.BUCKET_DURATION,
+				Math.max(1, duration * BUCKET_EVENTS / Math.max(1, events)));
+		CassandraSchema schema = new CassandraSchema(getEnum(Property.LAYOUT, Layout.ID),
+				bucketDuration);
+		schema.setReplication(getReplication());
+		schema.setAggregateDuration(getLong(Property.AGGREGATE_DURATION,
+				Math.max(1, duration / AGGREGATE_BUCKETS)));
+		schema.setTableOptions(getTableOptions());
+		if (isSet(Property.SHARED_KEYSPACE) && schema.getLayout() == Layout.ID) {
+			throw new SoCTraceException("The ID layout cannot be used in a shared keyspace");
+		}
+		return schema;
+	}
+
+	/**
+	 * Get the batch grouping: BATCH_GROUPING if set, otherwise the default grouping of the
+	 * schema layout.
+	 * 
+	 * @param schema
+	 *            schema of the new trace
+	 * @return the batch grouping
+	 */
+	public Grouping getGrouping(CassandraSchema schema) {
+		return getEnum(Property.BATCH_GROUPING,
+				CassandraBatcher.getDefaultGrouping(schema.getLayout()));
+	}
+
+	/**
+	 * Get the database name of a new trace: a new keyspace, or a new trace of SHARED_KEYSPACE.
+	 * 
+	 * @param base
+	 *            trace name base
+	 * @return the trace database name
+	 */
+	public String getTraceDbName(String base) {
+		String name = FramesocManager.getInstance().getTraceDBName(base);
+		if (!isSet(Property.SHARED_KEYSPACE)) {
+			return name;
+		}
+		return CassandraSession.getDbName(config.getProperty(Property.SHARED_KEYSPACE.name())
+				.trim(), name);
+	}
+
+	/**
+	 * Build the EVENT table options from the configuration: the options of TABLE_PROFILE,
+	 * possibly replaced one by one.
+	 */
+	public CassandraTableOptions getTableOptions() {
+		CassandraTableOptions options = new CassandraTableOptions(getEnum(
+				Property.TABLE_PROFILE, Profile.DEFAULT));
+		if (isSet(Property.COMPACTION)) {
+			options.setCompaction(config.getProperty(Property.COMPACTION.name()).trim());
+		}
+		if (isSet(Property.TABLE_COMPRESSION)) {
+			options.setCompression(config.getProperty(Property.TABLE_COMPRESSION.name())
+					.trim());
+		}
+		if (isSet(Property.BLOOM_FILTER_FP_CHANCE)) {
+			options.setBloomFilterFpChance(config.getProperty(
+					Property.BLOOM_FILTER_FP_CHANCE.name()).trim());
+		}
+		if (isSet(Property.CACHING)) {
+			options.setCaching(config.getProperty(Property.CACHING.name()).trim());
+		}
+		return options;
+	}
+
+	/**
+	 * Build the writer of a new trace from the configuration: in-flight window, retries,
+	 * consistency level, rate limit and window adaptation.
+	 * 
+	 * @param session
+	 *            session on the trace keyspace
+	 * @return the writer
+	 */
+	public CassandraBulkWriter getWriter(CassandraSession session) {
+		CassandraBulkWriter writer = new CassandraBulkWriter(session, getInt(
+				Property.MAX_IN_FLIGHT, CassandraBulkWriter.DEFAULT_MAX_IN_FLIGHT), getInt(
+				Property.MAX_RETRIES, CassandraBulkWriter.DEFAULT_MAX_RETRIES));
+		writer.setConsistencyLevel(getEnum(Property.WRITE_CONSISTENCY, ConsistencyLevel.ONE));
+		writer.setMaxRate(getLong(Property.MAX_WRITE_RATE, 0));
+		String adaptive = config.getProperty(Property.ADAPTIVE_WINDOW.name(), "false");
+		if (Boolean.parseBoolean(adaptive.trim())) {
+			writer.setTargetLatency(getLong(Property.TARGET_LATENCY,
+					CassandraBulkWriter.DEFAULT_TARGET_LATENCY));
+		}
+		return writer;
+	}
+
+	private boolean isSet(Property var) {
+		String value = config.getProperty(var.name());
+		return value != null && !value.trim().isEmpty();
+	}
+
+	/**
+	 * Build the keyspace replication map from the configuration.
+	 */
+	public String getReplication() throws SoCTraceException {
+		String strategy = get(Property.REPLICATION_STRATEGY);
+		if (strategy == null || strategy.trim().isEmpty()
+				|| strategy.trim().equals("SimpleStrategy")) {
+			return CassandraSchema.simpleReplication(getInt(Property.REPLICATION_FACTOR, 1));
+		}
+		if (!strategy.trim().equals("NetworkTopologyStrategy")) {
+			throw new SoCTraceException("Unknown replication strategy: " + strategy);
+		}
+		Map<String, Integer> factors = new LinkedHashMap<>();
+		String dcs = get(Property.REPLICATION_DATACENTERS);
+		if (dcs != null) {
+			for (String dc : dcs.split(",")) {
+				String[] f = dc.split(":");
+				if (f.length != 2) {
+					throw new SoCTraceException("Wrong datacenter replication: " + dc);
+				}
+				factors.put(f[0].trim(), Integer.valueOf(f[1].trim()));
+			}
+		}
+		if (factors.isEmpty()) {
+			throw new SoCTraceException("No datacenter replication factor specified");
+		}
+		return CassandraSchema.networkTopologyReplication(factors);
+	}
+
 }
@@ -11,21 +11,22 @@
 package fr.inria.soctrace.framesoc.cassandra.importer;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
-import com.datastax.driver.core.ResultSetFuture;
 
+import fr.inria.soctrace.framesoc.cassandra.importer.CassandraBatcher.Grouping;
 import fr.inria.soctrace.framesoc.cassandra.importer.CassandraImporterConfig.Property;
+import fr.inria.soctrace.framesoc.cassandra.importer.CassandraTraceFileImporter.TraceInfo;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema;
 import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSession;
-import fr.inria.soctrace.framesoc.core.FramesocManager;
 import fr.inria.soctrace.framesoc.core.tools.model.FileInput;
 import fr.inria.soctrace.framesoc.core.tools.model.FramesocTool;
 import fr.inria.soctrace.framesoc.core.tools.model.IFramesocToolInput;
@@ -40,15 +41,19 @@ import fr.inria.soctrace.lib.utils.DeltaManager;
 import fr.inria.soctrace.lib.utils.IdManager;
 
 /**
- * Import a dummy trace inside a keyspace.
+ * Import a trace file, or a dummy trace if no file is configured, inside a keyspace. If the
+ * import fails or is cancelled, the new keyspace is dropped.
  * 
  * @author "Generoso Pagano <generoso.pagano@inria.fr>"
  */
 public class CassandraImporterTool extends FramesocTool {
 
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(CassandraImporterTool.class);
+
 	private final static String KEYSPACE_BASE = "cassandra";
 	protected static final int WORK_STEP = 50000;
-	private int events = 10;
+	private long events = 10;
 	private int types = 10;
 	private int producers = 10;
 
@@ -62,8 +67,9 @@ public class CassandraImporterTool extends FramesocTool {
 		Job job = new Job("Cassandra Importer") {
 			@Override
 			protected IStatus run(IProgressMonitor monitor) {
-				SystemDBObject sysDB = null;
 				CassandraSession session = null;
+				String dbName = null;
+				boolean complete = false;
 				try {
 
 					// load configuration
@@ -73,90 +79,151 @@ public class CassandraImporterTool extends FramesocTool {
 					if (!conf.load(path)) {
 						throw new SoCTraceException("Error loading configuration file: " + path);
 					}
-					events = Integer.valueOf(conf.get(Property.EVENTS));
-					types = Integer.valueOf(conf.get(Property.TYPES));
-					producers = Integer.valueOf(conf.get(Property.PRODUCERS));
-
-					System.out.println("Events: " + events);
-					System.out.println("Types: " + types);
-					System.out.println("Producers: " + producers);
-
-					monitor.beginTask("Importing fake trace", events + producers + types);
+					String traceFile = conf.get(Property.TRACE_FILE);
+					long min = 0;
+					long max;
+					if (traceFile != null) {
+						TraceInfo info = CassandraTraceFileImporter.readInfo(traceFile);
+						events = info.events;
+						min = info.min;
+						max = info.max;
+						logger.info("Trace file: {}, events: {}", traceFile, events);
+						monitor.beginTask("Importing trace file",
+								CassandraTraceFileImporter.getWork(events));
+					} else {
+						events = Long.valueOf(conf.get(Property.EVENTS));
+						types = Integer.valueOf(conf.get(Property.TYPES));
+						producers = Integer.valueOf(conf.get(Property.PRODUCERS));
+						max = events * 10L;
+						logger.info("Fake trace events: {}, types: {}, producers: {}", events,
+								types, producers);
+						monitor.beginTask("Importing fake trace",
+								CassandraTraceFileImporter.getWork(events + producers + types));
+					}
 
-					// import the fake trace
-					String dbName = FramesocManager.getInstance().getTraceDBName(KEYSPACE_BASE);
-
-					// Trace metadata
-					DeltaManager dm = new DeltaManager();
-					sysDB = SystemDBObject.openNewInstance();
-					CassandraTraceMetadata meta = new CassandraTraceMetadata(sysDB, dbName, 0,
-							events * 10, events);
-					Trace t = new Trace(sysDB.getNewId(FramesocTable.TRACE.toString(), "ID"));
-					meta.setTraceFields(t);
-					meta.createMetadata();
-					meta.saveMetadata();
+					dbName = conf.getTraceDbName(KEYSPACE_BASE);
 
 					// Trace content
+					DeltaManager dm = new DeltaManager();
 					dm.start();
-					session = new CassandraSession(dbName, DBMode.DB_CREATE);
+					CassandraSchema schema = conf.getSchema(max - min, events);
+					session = new CassandraSession(dbName, DBMode.DB_CREATE, schema);
 					dm.end("schema");
 
+					CassandraBulkWriter writer = conf.getWriter(session);
+					int batchSize = conf.getInt(Property.BATCH_SIZE,
+							CassandraBatcher.DEFAULT_BATCH_SIZE);
+					Grouping grouping = conf.getGrouping(schema);
+					CassandraBatcher batcher = new CassandraBatcher(session, writer, batchSize,
+							grouping);
+
+					if (traceFile != null) {
+						// producers, types and events, read and written concurrently
+						dm.start();
+						CassandraTraceFileImporter importer = new CassandraTraceFileImporter(
+								traceFile, session, schema, writer, conf.getInt(
+										Property.WRITE_THREADS,
+										CassandraTraceFileImporter.DEFAULT_WRITE_THREADS),
+								conf.getInt(Property.QUEUE_SIZE,
+										CassandraTraceFileImporter.DEFAULT_QUEUE_SIZE));
+						CassandraAggregator aggregator = importer.run(batchSize, grouping, events,
+								monitor);
+						if (aggregator == null) {
+							writer.flush();
+							return Status.CANCEL_STATUS;
+						}
+						aggregator.write(session, batcher);
+						batcher.flush();
+						writer.close();
+						// registered only once all its content is written
+						saveMetadata(dbName, min, max);
+						complete = true;
+						dm.end("End import");
+						logger.info("Records written: {}, retries: {}, rate: {} writes/s",
+								writer.getWritten(), writer.getRetries(),
+								(long) writer.getWriteRate());
+						return Status.OK_STATUS;
+					}
+
 					// producers
 					dm.start();
+					PreparedStatement producerStatement = session.prepare(schema.getInsert(
+							FramesocTable.EVENT_PRODUCER.toString(), "ID, NAME"));
 					for (int i = 0; i < producers; i++) {
-						StringBuilder sb = new StringBuilder(
-								"INSERT INTO EVENT_PRODUCER (ID, NAME) VALUES ");
-						sb.append("(");
-						sb.append(i + ", "); // id
-						sb.append("'producer_" + i + "'"); // id
-						sb.append(");");
-						session.execute(sb.toString());
+						batcher.add(schema.bind(producerStatement, i, "producer_" + i));
 					}
+					batcher.flush();
+					writer.flush();
 					monitor.worked(producers);
 					dm.end("producers");
 
 					// types
 					dm.start();
+					PreparedStatement typeStatement = session.prepare(schema.getInsert(
+							FramesocTable.EVENT_TYPE.toString(), "ID, NAME"));
 					for (int i = 0; i < types; i++) {
-						StringBuilder sb = new StringBuilder(
-								"INSERT INTO EVENT_TYPE (ID, NAME) VALUES ");
-						sb.append("(");
-						sb.append(i + ", "); // id
-						sb.append("'type" + i + "'"); // id
-						sb.append(");");
-						session.execute(sb.toString());
+						batcher.add(schema.bind(typeStatement, i, "type" + i));
 					}
+					batcher.flush();
+					writer.flush();
 					monitor.worked(types);
 					dm.end("types");
 
 					// events
 					dm.start();
-					PreparedStatement statement = session
-							.prepare("INSERT INTO EVENT (ID, CPU, EVENT_TYPE_ID, EVENT_PRODUCER_ID,"
-									+ " CATEGORY, TIMESTAMP, LPAR, DPAR) VALUES (?, ? , ? , ? , ? ,"
-									+ " ? , ? , ?)");
-					List<ResultSetFuture> futures = new ArrayList<>();
+					PreparedStatement statement = session.prepare(schema.getInsertEvent());
+					PreparedStatement openStatement = schema.hasOpenTable() ? session
+							.prepare(schema.getInsertOpenEvent()) : null;
 					IdManager idm = new IdManager();
-					for (int i = 0; i < events; i++) {
-						BoundStatement bind = statement.bind(idm.getNextId(), 0,
-								((Double) (Math.random() * types)).intValue(),
-								((Double) (Math.random() * producers)).intValue(),
-								EventCategory.STATE, 10L * i, 10L * i + 9L, 0.0);
-						ResultSetFuture resultSetFuture = session.executeAsync(bind);
-						futures.add(resultSetFuture);
+					CassandraAggregator aggregator = new CassandraAggregator(schema);
+					for (long i = 0; i < events; i++) {
+						int typeId = ((Double) (Math.random() * types)).intValue();
+						int producerId = ((Double) (Math.random() * producers)).intValue();
+						int id = idm.getNextId();
+						BoundStatement bind = schema.bindEvent(statement, id, 0, typeId,
+								producerId, EventCategory.STATE, 10L * i, 10L * i + 9L, 0.0);
+						batcher.add(bind);
+						for (BoundStatement open : schema.bindOpenEvent(openStatement, id, 0,
+								typeId, producerId, EventCategory.STATE, 10L * i, 10L * i + 9L,
+								0.0)) {
+							batcher.add(open);
+						}
+						aggregator.addEvent(typeId, producerId, EventCategory.STATE, 10L * i,
+								10L * i + 9L);
 						if (i % WORK_STEP == 0) {
-							System.out.println(i);
 							monitor.worked(WORK_STEP);
+							if (monitor.isCanceled()) {
+								writer.flush();
+								return Status.CANCEL_STATUS;
+							}
 						}
 					}
+					// aggregate tables
+					aggregator.write(session, batcher);
+					// wait for all the writes to land before reporting success
+					batcher.flush();
+					writer.close();
+					saveMetadata(dbName, min, max);
+					complete = true;
 					dm.end("End import");
+					logger.info("Events written: {}, retries: {}, rate: {} writes/s",
+							writer.getWritten(), writer.getRetries(),
+							(long) writer.getWriteRate());
 
 				} catch (SoCTraceException e) {
 					e.printStackTrace();
 					return Status.CANCEL_STATUS;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return Status.CANCEL_STATUS;
 				} finally {
-					DBObject.finalClose(sysDB);
 					CassandraSession.finalClose(session);
+					if (!complete && dbName != null) {
+						// do not leave a half-written keyspace
+						if (!CassandraSession.drop(dbName)) {
+							logger.warn("Partial trace {} left in its shared keyspace", dbName);
+						}
+					}
 				}
 
 				return Status.OK_STATUS;
@@ -167,6 +234,25 @@ public class CassandraImporterTool extends FramesocTool {
 		job.schedule();
 	}
 
+	/**
+	 * Register the trace in the system database. Called only once all the trace content is
+	 * written, so that a cancelled or failed import does not leave a partial trace in Framesoc.
+	 */
+	private void saveMetadata(String dbName, long min, long max) throws SoCTraceException {
+		SystemDBObject sysDB = null;
+		try {
+			sysDB = SystemDBObject.openNewInstance();
+			CassandraTraceMetadata meta = new CassandraTraceMetadata(sysDB, dbName, min, max,
+					events);
+			Trace t = new Trace(sysDB.getNewId(FramesocTable.TRACE.toString(), "ID"));
+			meta.setTraceFields(t);
+			meta.createMetadata();
+			meta.saveMetadata();
+		} finally {
+			DBObject.finalClose(sysDB);
+		}
+	}
+
 	@Override
 	public ParameterCheckStatus canLaunch(IFramesocToolInput input) {
 		ParameterCheckStatus status = new ParameterCheckStatus(true, "");
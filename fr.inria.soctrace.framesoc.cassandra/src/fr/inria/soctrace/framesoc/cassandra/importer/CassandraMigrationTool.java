@@ -0,0 +1,588 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.importer;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Row;
+
+import fr.inria.soctrace.framesoc.cassandra.importer.CassandraBatcher.Grouping;
+import fr.inria.soctrace.framesoc.cassandra.importer.CassandraImporterConfig.Property;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema.Layout;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSession;
+import fr.inria.soctrace.framesoc.core.tools.model.FileInput;
+import fr.inria.soctrace.framesoc.core.tools.model.FramesocTool;
+import fr.inria.soctrace.framesoc.core.tools.model.IFramesocToolInput;
+import fr.inria.soctrace.lib.model.Trace;
+import fr.inria.soctrace.lib.model.utils.ModelConstants.EventCategory;
+import fr.inria.soctrace.lib.model.utils.SoCTraceException;
+import fr.inria.soctrace.lib.storage.DBObject;
+import fr.inria.soctrace.lib.storage.DBObject.DBMode;
+import fr.inria.soctrace.lib.storage.SystemDBObject;
+import fr.inria.soctrace.lib.storage.TraceDBObject;
+import fr.inria.soctrace.lib.storage.utils.SQLConstants.FramesocTable;
+import fr.inria.soctrace.lib.utils.DeltaManager;
+
+/**
+ * Copy an existing Framesoc trace database (events, producers, types and parameters) into a new
+ * Cassandra keyspace, and register it as a Cassandra trace.
+ *
+ * <p>
+ * The configuration file has the same format as the importer one (see cassandra_importer.conf):
+ * SOURCE_DB gives the name of the trace database to copy, and READ_THREADS the number of threads
+ * reading it. Events and their parameters are read by time range, each range being read by a
+ * thread with its own database connection, and written through a shared
+ * {@link CassandraBulkWriter}. At the end, the small tables are counted in the keyspace, the
+ * events of a few buckets (or a few events, with the ID layout) are read back, and the rows of the
+ * large tables, counted as they are copied, are compared with the source ones, the writer
+ * checking that all the writes were acknowledged. If the copy fails or is cancelled, the new
+ * keyspace is dropped.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraMigrationTool extends FramesocTool {
+
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(CassandraMigrationTool.class);
+
+	private final static String KEYSPACE_BASE = "cassandra";
+	private static final int DEFAULT_READ_THREADS = 4;
+	// number of time ranges per reading thread
+	private static final int RANGES_PER_THREAD = 8;
+	// reported progress unit
+	private static final int WORK_STEP = 10000;
+	// number of buckets (or events, with the ID layout) read back from the keyspace
+	private static final int SPOT_CHECKS = 8;
+
+	/**
+	 * Global properties of the source trace
+	 */
+	private static class SourceInfo {
+		long min;
+		long max;
+		long events;
+		long params;
+		int producers;
+		int types;
+		int paramTypes;
+	}
+
+	/**
+	 * Number of rows copied in the large tables
+	 */
+	private static class CopyCounts {
+		final AtomicLong events = new AtomicLong(0);
+		final AtomicLong params = new AtomicLong(0);
+	}
+
+	@Override
+	public void launch(final IFramesocToolInput input) {
+
+		Job job = new Job("Cassandra Migration") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				SystemDBObject sysDB = null;
+				TraceDBObject source = null;
+				CassandraSession session = null;
+				String dbName = null;
+				boolean complete = false;
+				try {
+
+					// load configuration
+					FileInput fileInput = (FileInput) input;
+					String path = fileInput.getFiles().get(0);
+					CassandraImporterConfig conf = new CassandraImporterConfig();
+					if (!conf.load(path)) {
+						throw new SoCTraceException("Error loading configuration file: " + path);
+					}
+					String sourceDB = conf.get(Property.SOURCE_DB);
+					if (sourceDB == null || sourceDB.trim().isEmpty()) {
+						throw new SoCTraceException("No source trace database specified");
+					}
+					int threads = Math.max(1,
+							conf.getInt(Property.READ_THREADS, DEFAULT_READ_THREADS));
+
+					// source trace
+					DeltaManager dm = new DeltaManager();
+					dm.start();
+					source = new TraceDBObject(sourceDB.trim(), DBMode.DB_OPEN);
+					SourceInfo info = readInfo(source.getConnection());
+					logger.info("Source: {}, events: {}, params: {}", sourceDB, info.events,
+							info.params);
+					monitor.beginTask("Migrating trace " + sourceDB,
+							(int) (info.events / WORK_STEP) + 2);
+
+					// keyspace
+					dbName = conf.getTraceDbName(KEYSPACE_BASE);
+					CassandraSchema schema = conf.getSchema(info.max - info.min, info.events);
+					session = new CassandraSession(dbName, DBMode.DB_CREATE, schema);
+					dm.end("schema");
+
+					CassandraBulkWriter writer = conf.getWriter(session);
+					int batchSize = conf.getInt(Property.BATCH_SIZE,
+							CassandraBatcher.DEFAULT_BATCH_SIZE);
+					Grouping grouping = conf.getGrouping(schema);
+
+					// producers, types and parameter types
+					dm.start();
+					CassandraBatcher batcher = new CassandraBatcher(session, writer, batchSize,
+							grouping);
+					CopyCounts counts = new CopyCounts();
+					copyMetadata(source.getConnection(), session, schema, batcher);
+					batcher.flush();
+					writer.flush();
+					monitor.worked(1);
+					dm.end("metadata");
+
+					// events and parameters
+					dm.start();
+					CassandraAggregator aggregator = copyEvents(sourceDB.trim(), info, threads,
+							session, writer, schema, batchSize, grouping, counts, monitor);
+					if (aggregator == null) {
+						writer.flush();
+						return Status.CANCEL_STATUS;
+					}
+					aggregator.write(session, batcher);
+					batcher.flush();
+					writer.close();
+					dm.end("events");
+					logger.info("Rows written: {}, retries: {}, rate: {} writes/s",
+							writer.getWritten(), writer.getRetries(),
+							(long) writer.getWriteRate());
+
+					// verification: all the writes succeeded (checked by close)
+					verify(source.getConnection(), session, schema, info, counts);
+					monitor.worked(1);
+
+					// trace metadata, only once the copy is complete
+					sysDB = SystemDBObject.openNewInstance();
+					CassandraTraceMetadata meta = new CassandraTraceMetadata(sysDB, dbName,
+							info.min, info.max, info.events);
+					Trace t = new Trace(sysDB.getNewId(FramesocTable.TRACE.toString(), "ID"));
+					meta.setTraceFields(t);
+					meta.createMetadata();
+					meta.saveMetadata();
+					complete = true;
+
+				} catch (SoCTraceException e) {
+					e.printStackTrace();
+					return Status.CANCEL_STATUS;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return Status.CANCEL_STATUS;
+				} finally {
+					DBObject.finalClose(sysDB);
+					DBObject.finalClose(source);
+					CassandraSession.finalClose(session);
+					if (!complete && dbName != null) {
+						// do not leave a half-written keyspace
+						if (!CassandraSession.drop(dbName)) {
+							logger.warn("Partial trace {} left in its shared keyspace", dbName);
+						}
+					}
+					monitor.done();
+				}
+
+				return Status.OK_STATUS;
+			}
+		};
+
+		job.setUser(true);
+		job.schedule();
+	}
+
+	private SourceInfo readInfo(Connection connection) throws SoCTraceException {
+		SourceInfo info = new SourceInfo();
+		try (Statement stm = connection.createStatement()) {
+			ResultSet rs = stm.executeQuery("SELECT MIN(TIMESTAMP), MAX(TIMESTAMP), COUNT(*) FROM "
+					+ FramesocTable.EVENT);
+			if (rs.next()) {
+				info.min = rs.getLong(1);
+				info.max = rs.getLong(2);
+				info.events = rs.getLong(3);
+			}
+			rs.close();
+			// states and links may end after the last event start
+			rs = stm.executeQuery("SELECT MAX(LPAR) FROM " + FramesocTable.EVENT
+					+ " WHERE CATEGORY = " + EventCategory.STATE + " OR CATEGORY = "
+					+ EventCategory.LINK);
+			if (rs.next()) {
+				info.max = Math.max(info.max, rs.getLong(1));
+			}
+			rs.close();
+			info.params = count(stm, FramesocTable.EVENT_PARAM.toString());
+			info.types = (int) count(stm, FramesocTable.EVENT_TYPE.toString());
+			info.paramTypes = (int) count(stm, FramesocTable.EVENT_PARAM_TYPE.toString());
+			info.producers = (int) count(stm, FramesocTable.EVENT_PRODUCER.toString());
+		} catch (SQLException e) {
+			throw new SoCTraceException(e);
+		}
+		return info;
+	}
+
+	private long count(Statement stm, String table) throws SQLException {
+		try (ResultSet rs = stm.executeQuery("SELECT COUNT(*) FROM " + table)) {
+			return rs.next() ? rs.getLong(1) : 0;
+		}
+	}
+
+	private void copyMetadata(Connection connection, CassandraSession session,
+			CassandraSchema schema, CassandraBatcher batcher)
+			throws SoCTraceException, InterruptedException {
+		try (Statement stm = connection.createStatement()) {
+			com.datastax.driver.core.PreparedStatement ps = session.prepare(schema.getInsert(
+					FramesocTable.EVENT_PRODUCER.toString(), "ID, NAME, TYPE, LOCAL_ID, PARENT_ID"));
+			ResultSet rs = stm.executeQuery("SELECT ID, NAME, TYPE, LOCAL_ID, PARENT_ID FROM "
+					+ FramesocTable.EVENT_PRODUCER);
+			while (rs.next()) {
+				batcher.add(schema.bind(ps, rs.getInt(1), rs.getString(2), rs.getString(3),
+						rs.getString(4), rs.getInt(5)));
+			}
+			rs.close();
+
+			ps = session.prepare(schema.getInsert(FramesocTable.EVENT_TYPE.toString(),
+					"ID, NAME, CATEGORY"));
+			rs = stm.executeQuery("SELECT ID, NAME, CATEGORY FROM " + FramesocTable.EVENT_TYPE);
+			while (rs.next()) {
+				batcher.add(schema.bind(ps, rs.getInt(1), rs.getString(2), rs.getInt(3)));
+			}
+			rs.close();
+
+			ps = session.prepare(schema.getInsert(FramesocTable.EVENT_PARAM_TYPE.toString(),
+					"ID, EVENT_TYPE_ID, NAME, TYPE"));
+			rs = stm.executeQuery("SELECT ID, EVENT_TYPE_ID, NAME, TYPE FROM "
+					+ FramesocTable.EVENT_PARAM_TYPE);
+			while (rs.next()) {
+				batcher.add(schema.bind(ps, rs.getInt(1), rs.getInt(2), rs.getString(3),
+						rs.getString(4)));
+			}
+			rs.close();
+		} catch (SQLException e) {
+			throw new SoCTraceException(e);
+		}
+	}
+
+	/**
+	 * Copy the events and their parameters, reading the source by time range in parallel.
+	 *
+	 * @return the aggregates of the copied events, or null if cancelled
+	 */
+	private CassandraAggregator copyEvents(String sourceDB, SourceInfo info, int threads,
+			CassandraSession session, CassandraBulkWriter writer, CassandraSchema schema,
+			int batchSize, Grouping grouping, CopyCounts counts, IProgressMonitor monitor)
+			throws SoCTraceException, InterruptedException {
+
+		AtomicLong copied = counts.events;
+		AtomicBoolean cancelled = new AtomicBoolean(false);
+		List<RangeCopy> ranges = new ArrayList<>();
+		int n = threads * RANGES_PER_THREAD;
+		long step = Math.max(1, (info.max - info.min) / n + 1);
+		for (long t0 = info.min; t0 <= info.max; t0 += step) {
+			ranges.add(new RangeCopy(sourceDB, t0, t0 + step, session, schema,
+					new CassandraBatcher(session, writer, batchSize, grouping), copied,
+					counts.params, cancelled));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<CassandraAggregator>> futures = new ArrayList<>();
+			for (RangeCopy range : ranges) {
+				futures.add(executor.submit(range));
+			}
+			CassandraAggregator aggregator = new CassandraAggregator(schema);
+			long reported = 0;
+			for (Future<CassandraAggregator> future : futures) {
+				while (true) {
+					try {
+						aggregator.merge(future.get(1, TimeUnit.SECONDS));
+						break;
+					} catch (TimeoutException e) {
+						// report progress and check cancellation below
+					} finally {
+						long done = copied.get() / WORK_STEP;
+						monitor.worked((int) (done - reported));
+						reported = done;
+						if (monitor.isCanceled()) {
+							cancelled.set(true);
+						}
+					}
+				}
+			}
+			return cancelled.get() ? null : aggregator;
+		} catch (ExecutionException e) {
+			cancelled.set(true);
+			throw new SoCTraceException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Copy of the events (and their parameters) starting in a time range [t0, t1).
+	 */
+	private static class RangeCopy implements Callable<CassandraAggregator> {
+
+		private final String sourceDB;
+		private final long t0;
+		private final long t1;
+		private final CassandraSession session;
+		private final CassandraSchema schema;
+		private final CassandraBatcher batcher;
+		private final AtomicLong copied;
+		private final AtomicLong copiedParams;
+		private final AtomicBoolean cancelled;
+
+		RangeCopy(String sourceDB, long t0, long t1, CassandraSession session,
+				CassandraSchema schema, CassandraBatcher batcher, AtomicLong copied,
+				AtomicLong copiedParams, AtomicBoolean cancelled) {
+			this.sourceDB = sourceDB;
+			this.t0 = t0;
+			this.t1 = t1;
+			this.session = session;
+			this.schema = schema;
+			this.batcher = batcher;
+			this.copied = copied;
+			this.copiedParams = copiedParams;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		public CassandraAggregator call() throws Exception {
+			CassandraAggregator aggregator = new CassandraAggregator(schema);
+			TraceDBObject source = null;
+			try {
+				source = new TraceDBObject(sourceDB, DBMode.DB_OPEN);
+				Connection connection = source.getConnection();
+				copyEvents(connection, aggregator);
+				copyParams(connection);
+				batcher.flush();
+				return aggregator;
+			} finally {
+				DBObject.finalClose(source);
+			}
+		}
+
+		private void copyEvents(Connection connection, CassandraAggregator aggregator)
+				throws SQLException, InterruptedException {
+			com.datastax.driver.core.PreparedStatement insert = session.prepareCached(schema
+					.getInsertEvent());
+			com.datastax.driver.core.PreparedStatement insertOpen = schema.hasOpenTable() ? session
+					.prepareCached(schema.getInsertOpenEvent()) : null;
+			try (PreparedStatement stm = connection
+					.prepareStatement("SELECT ID, CPU, EVENT_TYPE_ID, EVENT_PRODUCER_ID, CATEGORY,"
+							+ " TIMESTAMP, LPAR, DPAR FROM " + FramesocTable.EVENT
+							+ " WHERE TIMESTAMP >= ? AND TIMESTAMP < ?")) {
+				stm.setLong(1, t0);
+				stm.setLong(2, t1);
+				ResultSet rs = stm.executeQuery();
+				while (rs.next() && !cancelled.get()) {
+					int typeId = rs.getInt(3);
+					int producerId = rs.getInt(4);
+					int category = rs.getInt(5);
+					long timestamp = rs.getLong(6);
+					long lpar = rs.getLong(7);
+					batcher.add(schema.bindEvent(insert, rs.getInt(1), rs.getInt(2), typeId,
+							producerId, category, timestamp, lpar, rs.getDouble(8)));
+					for (BoundStatement open : schema.bindOpenEvent(insertOpen, rs.getInt(1),
+							rs.getInt(2), typeId, producerId, category, timestamp, lpar,
+							rs.getDouble(8))) {
+						batcher.add(open);
+					}
+					aggregator.addEvent(typeId, producerId, category, timestamp, lpar);
+					copied.incrementAndGet();
+				}
+				rs.close();
+			}
+		}
+
+		private void copyParams(Connection connection) throws SQLException, InterruptedException {
+			com.datastax.driver.core.PreparedStatement insert = session.prepareCached(schema
+					.getInsert(FramesocTable.EVENT_PARAM.toString(),
+							"EVENT_ID, ID, EVENT_PARAM_TYPE_ID, VALUE"));
+			String query = "SELECT P.EVENT_ID, P.ID, P.EVENT_PARAM_TYPE_ID, P.VALUE FROM "
+					+ FramesocTable.EVENT_PARAM + " P JOIN " + FramesocTable.EVENT
+					+ " E ON P.EVENT_ID = E.ID WHERE E.TIMESTAMP >= ? AND E.TIMESTAMP < ?";
+			try (PreparedStatement stm = connection.prepareStatement(query)) {
+				stm.setLong(1, t0);
+				stm.setLong(2, t1);
+				ResultSet rs = stm.executeQuery();
+				while (rs.next() && !cancelled.get()) {
+					batcher.add(schema.bind(insert, rs.getInt(1), rs.getInt(2), rs.getInt(3),
+							rs.getString(4)));
+					copiedParams.incrementAndGet();
+				}
+				rs.close();
+			}
+		}
+	}
+
+	/**
+	 * Check the copy against the keyspace. The small tables are counted in the keyspace, and the
+	 * events of a few buckets (a few events with the ID layout) are compared with the source ones.
+	 * The EVENT and EVENT_PARAM tables cannot be counted without a full scan: their copied rows
+	 * are compared with the source counts, the writer having checked that all the writes were
+	 * acknowledged.
+	 */
+	private void verify(Connection connection, CassandraSession session, CassandraSchema schema,
+			SourceInfo info, CopyCounts counts) throws SoCTraceException {
+		List<String> errors = new ArrayList<>();
+		check(errors, FramesocTable.EVENT_PRODUCER.toString(), info.producers,
+				countRows(session, schema, FramesocTable.EVENT_PRODUCER.toString()));
+		check(errors, FramesocTable.EVENT_TYPE.toString(), info.types,
+				countRows(session, schema, FramesocTable.EVENT_TYPE.toString()));
+		check(errors, FramesocTable.EVENT_PARAM_TYPE.toString(), info.paramTypes,
+				countRows(session, schema, FramesocTable.EVENT_PARAM_TYPE.toString()));
+		check(errors, FramesocTable.EVENT_PARAM.toString(), info.params, counts.params.get());
+		check(errors, FramesocTable.EVENT.toString(), info.events, counts.events.get());
+		try {
+			if (schema.isBucketed()) {
+				checkBuckets(connection, session, schema, info, errors);
+			} else {
+				checkEvents(connection, session, schema, info, errors);
+			}
+		} catch (SQLException e) {
+			throw new SoCTraceException(e);
+		}
+		if (!errors.isEmpty()) {
+			throw new SoCTraceException("Row count mismatch: " + errors);
+		}
+	}
+
+	private long countRows(CassandraSession session, CassandraSchema schema, String table) {
+		Row r = session.execute(
+				schema.bind(session.prepare(schema.getSelect(table, "COUNT(*)", null)))).one();
+		return (r == null) ? 0 : r.getLong(0);
+	}
+
+	/**
+	 * Compare the number of events of a few buckets, spread over the trace, with the source.
+	 */
+	private void checkBuckets(Connection connection, CassandraSession session,
+			CassandraSchema schema, SourceInfo info, List<String> errors) throws SQLException {
+		List<Integer> producers = new ArrayList<>();
+		if (schema.getLayout() == Layout.TIME_BUCKET_PRODUCER) {
+			try (Statement stm = connection.createStatement();
+					ResultSet rs = stm.executeQuery("SELECT ID FROM "
+							+ FramesocTable.EVENT_PRODUCER)) {
+				while (rs.next()) {
+					producers.add(rs.getInt(1));
+				}
+			}
+		}
+		try (PreparedStatement stm = connection.prepareStatement("SELECT COUNT(*) FROM "
+				+ FramesocTable.EVENT + " WHERE TIMESTAMP >= ? AND TIMESTAMP <= ?")) {
+			long previous = Long.MIN_VALUE;
+			for (int i = 0; i < SPOT_CHECKS; i++) {
+				long bucket = schema.getBucket(info.min + (info.max - info.min) / SPOT_CHECKS * i);
+				if (bucket == previous) {
+					continue;
+				}
+				previous = bucket;
+				long t0 = bucket * schema.getBucketDuration();
+				long t1 = t0 + schema.getBucketDuration() - 1;
+				stm.setLong(1, t0);
+				stm.setLong(2, t1);
+				long expected = 0;
+				try (ResultSet rs = stm.executeQuery()) {
+					expected = rs.next() ? rs.getLong(1) : 0;
+				}
+				long actual = 0;
+				for (com.datastax.driver.core.Statement query : schema.getIntervalQueries(session,
+						"COUNT(*)", t0, t1, true, producers)) {
+					actual += session.execute(query).one().getLong(0);
+				}
+				check(errors, FramesocTable.EVENT + " bucket " + bucket, expected, actual);
+			}
+		}
+	}
+
+	/**
+	 * Check that a few events, spread over the trace, are in the keyspace (ID layout).
+	 */
+	private void checkEvents(Connection connection, CassandraSession session,
+			CassandraSchema schema, SourceInfo info, List<String> errors) throws SQLException {
+		com.datastax.driver.core.PreparedStatement byId = session.prepare(schema.getSelect(
+				FramesocTable.EVENT.toString(), "COUNT(*)", "ID = ?"));
+		try (PreparedStatement stm = connection.prepareStatement("SELECT ID FROM "
+				+ FramesocTable.EVENT + " WHERE TIMESTAMP >= ? ORDER BY TIMESTAMP LIMIT 1")) {
+			for (int i = 0; i < SPOT_CHECKS; i++) {
+				stm.setLong(1, info.min + (info.max - info.min) / SPOT_CHECKS * i);
+				try (ResultSet rs = stm.executeQuery()) {
+					if (rs.next()) {
+						int id = rs.getInt(1);
+						check(errors, FramesocTable.EVENT + " " + id, 1,
+								session.execute(schema.bind(byId, id)).one().getLong(0));
+					}
+				}
+			}
+		}
+	}
+
+	private void check(List<String> errors, String table, long expected, long actual) {
+		logger.debug("{}: {}/{} rows", table, actual, expected);
+		if (expected != actual) {
+			errors.add(table + " " + actual + "/" + expected);
+		}
+	}
+
+	@Override
+	public ParameterCheckStatus canLaunch(IFramesocToolInput input) {
+		ParameterCheckStatus status = new ParameterCheckStatus(true, "");
+		if (!(input instanceof FileInput)) {
+			status.valid = false;
+			status.message = "Wrong input type";
+			return status;
+		}
+
+		FileInput fileInput = (FileInput) input;
+		if (fileInput.getFiles().size() < 1) {
+			status.valid = false;
+			status.message = "Specify the configuration file";
+			return status;
+		}
+
+		String path = fileInput.getFiles().get(0);
+		File f = new File(path);
+		if (!f.isFile()) {
+			status.valid = false;
+			status.message = "Configuration file does not exist: " + path;
+			return status;
+		}
+
+		return status;
+	}
+
+}
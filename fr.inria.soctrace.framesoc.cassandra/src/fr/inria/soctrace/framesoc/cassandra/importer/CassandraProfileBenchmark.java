@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.importer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema.Layout;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSession;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraTableOptions;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraTableOptions.Profile;
+import fr.inria.soctrace.framesoc.ui.gantt.model.ReducedEvent;
+import fr.inria.soctrace.lib.model.utils.ModelConstants.EventCategory;
+import fr.inria.soctrace.lib.storage.DBObject.DBMode;
+
+/**
+ * Compare the import and time range read throughput of the EVENT table profiles.
+ *
+ * <p>
+ * For each profile, a synthetic trace is written in a new keyspace with the TIME_BUCKET layout,
+ * then random time windows are read with the loader interval queries. The keyspaces are dropped
+ * at the end. The contact points are the ones of the loader configuration (127.0.0.1 by
+ * default): the benchmark is meant for a local single-node instance.
+ *
+ * <p>
+ * Usage: CassandraProfileBenchmark [events [windows]]
+ *
+ * <p>
+ * With few events, the reads are served from the memtables and the profiles cannot be told
+ * apart: use enough events for the trace to be flushed to SSTables (several millions with the
+ * default memtable size).
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraProfileBenchmark {
+
+	private static final String KEYSPACE_BASE = "framesoc_benchmark_";
+	private static final int DEFAULT_EVENTS = 5000000;
+	private static final int DEFAULT_WINDOWS = 50;
+	private static final int PRODUCERS = 100;
+	private static final int TYPES = 10;
+	private static final long EVENT_DURATION = 10;
+	private static final long BUCKET_EVENTS = 100000;
+	private static final int FETCH_SIZE = 5000;
+
+	public static void main(String[] args) throws Exception {
+		int events = (args.length > 0) ? Integer.valueOf(args[0]) : DEFAULT_EVENTS;
+		int windows = (args.length > 1) ? Integer.valueOf(args[1]) : DEFAULT_WINDOWS;
+		List<String> results = new ArrayList<>();
+		for (Profile profile : Profile.values()) {
+			results.add(run(profile, events, windows));
+		}
+		System.out.println();
+		System.out.println("profile, import (events/s), read (rows/s)");
+		for (String r : results) {
+			System.out.println(r);
+		}
+		System.exit(0);
+	}
+
+	private static String run(Profile profile, int events, int windows) throws Exception {
+		String keyspace = KEYSPACE_BASE + profile.name().toLowerCase();
+		CassandraSession.drop(keyspace);
+		CassandraSchema schema = new CassandraSchema(Layout.TIME_BUCKET, EVENT_DURATION
+				* BUCKET_EVENTS);
+		schema.setTableOptions(new CassandraTableOptions(profile));
+		CassandraSession session = new CassandraSession(keyspace, DBMode.DB_CREATE, schema);
+		try {
+			double importRate = write(session, schema, events);
+			double readRate = read(session, schema, events, windows);
+			System.out.println(profile + ": import " + (long) importRate + " events/s, read "
+					+ (long) readRate + " rows/s");
+			return profile + ", " + (long) importRate + ", " + (long) readRate;
+		} finally {
+			session.close();
+			CassandraSession.drop(keyspace);
+		}
+	}
+
+	/**
+	 * Write the synthetic events: non-overlapping states of all the producers.
+	 *
+	 * @return the import throughput in events/s
+	 */
+	private static double write(CassandraSession session, CassandraSchema schema, int events)
+			throws Exception {
+		CassandraBulkWriter writer = new CassandraBulkWriter(session,
+				CassandraBulkWriter.DEFAULT_MAX_IN_FLIGHT, CassandraBulkWriter.DEFAULT_MAX_RETRIES);
+		CassandraBatcher batcher = new CassandraBatcher(session, writer,
+				CassandraBatcher.DEFAULT_BATCH_SIZE,
+				CassandraBatcher.getDefaultGrouping(schema.getLayout()));
+		PreparedStatement insert = session.prepare(schema.getInsertEvent());
+		PreparedStatement insertOpen = schema.hasOpenTable() ? session.prepare(schema
+				.getInsertOpenEvent()) : null;
+		long start = System.nanoTime();
+		for (int i = 0; i < events; i++) {
+			long timestamp = EVENT_DURATION * i;
+			batcher.add(schema.bindEvent(insert, i, 0, i % TYPES, i % PRODUCERS,
+					EventCategory.STATE, timestamp, timestamp + EVENT_DURATION - 1, 0.0));
+			for (BoundStatement open : schema.bindOpenEvent(insertOpen, i, 0, i % TYPES,
+					i % PRODUCERS, EventCategory.STATE, timestamp, timestamp + EVENT_DURATION - 1,
+					0.0)) {
+				batcher.add(open);
+			}
+		}
+		batcher.flush();
+		writer.close();
+		return events / ((System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Read random time windows of 1% of the trace.
+	 *
+	 * @return the read throughput in rows/s
+	 */
+	private static double read(CassandraSession session, CassandraSchema schema, int events,
+			int windows) {
+		long duration = EVENT_DURATION * events;
+		long window = Math.max(1, duration / 100);
+		Random random = new Random(0);
+		long rows = 0;
+		long start = System.nanoTime();
+		for (int w = 0; w < windows; w++) {
+			long t0 = (long) (random.nextDouble() * (duration - window));
+			for (Statement query : schema.getIntervalQueries(session,
+					ReducedEvent.SELECT_COLUMNS, t0, t0 + window, false, null)) {
+				query.setFetchSize(FETCH_SIZE);
+				ResultSet rs = session.execute(query);
+				for (@SuppressWarnings("unused")
+				Row r : rs) {
+					rows++;
+				}
+			}
+		}
+		return rows / ((System.nanoTime() - start) / 1e9);
+	}
+
+}
@@ -0,0 +1,403 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.importer;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+
+import fr.inria.soctrace.framesoc.cassandra.importer.CassandraBatcher.Grouping;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSession;
+import fr.inria.soctrace.lib.model.utils.ModelConstants.EventCategory;
+import fr.inria.soctrace.lib.model.utils.SoCTraceException;
+import fr.inria.soctrace.lib.storage.utils.SQLConstants.FramesocTable;
+
+/**
+ * Import a trace file in a keyspace, with a pipeline: a reader thread splits the file records
+ * into blocks, put in a bounded queue, and several writer threads bind the records of the
+ * blocks and send them with asynchronous batched inserts. Reading the file and writing to the
+ * cluster thus overlap, and a slow cluster slows the reader down instead of filling the memory.
+ *
+ * <pre>
+ * File format: one record per line, with fields separated by ';'. Empty lines and lines
+ * starting with '#' are ignored.
+ * TRACE;min timestamp;max timestamp;number of events    (optional, first record)
+ * PRODUCER;id;name;type;local id;parent id
+ * TYPE;id;name;category
+ * EVENT;id;cpu;type id;producer id;category;timestamp;lpar;dpar
+ * </pre>
+ *
+ * Without TRACE record, the file is read once more before the import, to get the trace time
+ * span and number of events, which are needed to create the keyspace.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraTraceFileImporter {
+
+	public static final int DEFAULT_WRITE_THREADS = 4;
+	public static final int DEFAULT_QUEUE_SIZE = 64;
+
+	private static final String SEPARATOR = ";";
+	private static final String TRACE = "TRACE";
+	private static final String PRODUCER = "PRODUCER";
+	private static final String TYPE = "TYPE";
+	private static final String EVENT = "EVENT";
+	private static final int BLOCK_SIZE = 1000;
+	private static final List<String[]> END = Collections.emptyList();
+
+	/**
+	 * Time span and number of events of a trace file
+	 */
+	public static class TraceInfo {
+		public long min = Long.MAX_VALUE;
+		public long max = Long.MIN_VALUE;
+		public long events = 0;
+	}
+
+	private final String path;
+	private final CassandraSession session;
+	private final CassandraSchema schema;
+	private final CassandraBulkWriter writer;
+	private final int threads;
+	private final int queueSize;
+
+	// pipeline state
+	private final AtomicLong imported = new AtomicLong(0);
+	private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+	/**
+	 * @param path
+	 *            trace file
+	 * @param session
+	 *            session on the created keyspace
+	 * @param schema
+	 *            keyspace schema
+	 * @param writer
+	 *            writer shared by the writer threads
+	 * @param threads
+	 *            number of writer threads
+	 * @param queueSize
+	 *            max number of record blocks waiting for a writer thread
+	 */
+	public CassandraTraceFileImporter(String path, CassandraSession session,
+			CassandraSchema schema, CassandraBulkWriter writer, int threads, int queueSize) {
+		this.path = path;
+		this.session = session;
+		this.schema = schema;
+		this.writer = writer;
+		this.threads = Math.max(1, threads);
+		this.queueSize = Math.max(1, queueSize);
+	}
+
+	/**
+	 * Get the time span and number of events of a trace file, from its TRACE record or, if
+	 * there is none, by reading all its events.
+	 *
+	 * @param path
+	 *            trace file
+	 * @return the trace information
+	 * @throws SoCTraceException
+	 */
+	public static TraceInfo readInfo(String path) throws SoCTraceException {
+		TraceInfo info = new TraceInfo();
+		try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] f = split(line);
+				if (f == null) {
+					continue;
+				}
+				if (f[0].equals(TRACE)) {
+					info.min = Long.valueOf(f[1]);
+					info.max = Long.valueOf(f[2]);
+					info.events = Long.valueOf(f[3]);
+					return info;
+				}
+				if (!f[0].equals(EVENT)) {
+					continue;
+				}
+				int category = Integer.valueOf(f[5]);
+				long timestamp = Long.valueOf(f[6]);
+				info.min = Math.min(info.min, timestamp);
+				info.max = Math.max(info.max, timestamp);
+				if (category == EventCategory.STATE || category == EventCategory.LINK) {
+					info.max = Math.max(info.max, Long.valueOf(f[7]));
+				}
+				info.events++;
+			}
+		} catch (IOException | RuntimeException e) {
+			throw new SoCTraceException("Error reading trace file " + path, e);
+		}
+		if (info.events == 0) {
+			info.min = info.max = 0;
+		}
+		return info;
+	}
+
+	/**
+	 * Get the total work of the progress monitor of {@link #run}: one unit per event, unless
+	 * there are more events than int units.
+	 *
+	 * @param events
+	 *            number of events of the file
+	 * @return the number of work units
+	 */
+	public static int getWork(long events) {
+		return (int) Math.min(Integer.MAX_VALUE, events);
+	}
+
+	/**
+	 * Import the file. The caller must flush the writer.
+	 *
+	 * @param batchSize
+	 *            number of inserts per batch
+	 * @param grouping
+	 *            batch grouping
+	 * @param events
+	 *            number of events of the file, for the progress monitor
+	 * @param monitor
+	 *            progress monitor, started with {@link #getWork(long)} units
+	 * @return the aggregates of the imported events, or null if cancelled
+	 * @throws SoCTraceException
+	 * @throws InterruptedException
+	 */
+	public CassandraAggregator run(int batchSize, Grouping grouping, long events,
+			IProgressMonitor monitor) throws SoCTraceException, InterruptedException {
+		BlockingQueue<List<String[]>> queue = new ArrayBlockingQueue<>(queueSize);
+		ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+		try {
+			Future<Void> reader = executor.submit(new Reader(queue));
+			List<Future<CassandraAggregator>> writers = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				writers.add(executor.submit(new Writer(queue, new CassandraBatcher(session,
+						writer, batchSize, grouping))));
+			}
+			CassandraAggregator aggregator = new CassandraAggregator(schema);
+			long start = System.currentTimeMillis();
+			int work = getWork(events);
+			int reported = 0;
+			for (Future<CassandraAggregator> future : writers) {
+				while (true) {
+					try {
+						aggregator.merge(future.get(1, TimeUnit.SECONDS));
+						break;
+					} catch (TimeoutException e) {
+						// report progress and check cancellation below
+					} finally {
+						long done = imported.get();
+						int worked = (events == 0) ? 0 : (int) Math.min(work, (double) done
+								/ events * work);
+						monitor.worked(worked - reported);
+						reported = worked;
+						long seconds = Math.max(1, (System.currentTimeMillis() - start) / 1000);
+						monitor.subTask(done + "/" + events + " events, " + done / seconds
+								+ " events/s");
+						if (monitor.isCanceled()) {
+							cancelled.set(true);
+						}
+					}
+				}
+			}
+			reader.get();
+			return cancelled.get() ? null : aggregator;
+		} catch (ExecutionException e) {
+			cancelled.set(true);
+			if (e.getCause() instanceof SoCTraceException) {
+				throw (SoCTraceException) e.getCause();
+			}
+			throw new SoCTraceException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the fields of a record line, or null for an empty or comment line
+	 */
+	private static String[] split(String line) {
+		line = line.trim();
+		if (line.isEmpty() || line.startsWith("#")) {
+			return null;
+		}
+		return line.split(SEPARATOR, -1);
+	}
+
+	/**
+	 * Put a block in the queue, giving up if the import is cancelled (e.g., because a writer
+	 * failed and nobody takes blocks anymore).
+	 *
+	 * @return false if cancelled
+	 */
+	private boolean put(BlockingQueue<List<String[]>> queue, List<String[]> block)
+			throws InterruptedException {
+		while (!queue.offer(block, 1, TimeUnit.SECONDS)) {
+			if (cancelled.get()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read the file and split its records into blocks.
+	 */
+	private class Reader implements Callable<Void> {
+
+		private final BlockingQueue<List<String[]>> queue;
+
+		Reader(BlockingQueue<List<String[]>> queue) {
+			this.queue = queue;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+				List<String[]> block = new ArrayList<>(BLOCK_SIZE);
+				String line;
+				while ((line = reader.readLine()) != null && !cancelled.get()) {
+					String[] f = split(line);
+					if (f == null || f[0].equals(TRACE)) {
+						continue;
+					}
+					block.add(f);
+					if (block.size() == BLOCK_SIZE) {
+						if (!put(queue, block)) {
+							return null;
+						}
+						block = new ArrayList<>(BLOCK_SIZE);
+					}
+				}
+				if (!block.isEmpty() && !put(queue, block)) {
+					return null;
+				}
+			} catch (IOException e) {
+				cancelled.set(true);
+				throw new SoCTraceException("Error reading trace file " + path, e);
+			} finally {
+				// one end marker per writer, unless the import is cancelled
+				for (int i = 0; i < threads; i++) {
+					if (!put(queue, END)) {
+						break;
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Bind the records of the blocks and send them.
+	 */
+	private class Writer implements Callable<CassandraAggregator> {
+
+		private final BlockingQueue<List<String[]>> queue;
+		private final CassandraBatcher batcher;
+		private final PreparedStatement insertEvent;
+		private final PreparedStatement insertOpenEvent;
+		private final PreparedStatement insertProducer;
+		private final PreparedStatement insertType;
+
+		Writer(BlockingQueue<List<String[]>> queue, CassandraBatcher batcher) {
+			this.queue = queue;
+			this.batcher = batcher;
+			this.insertEvent = session.prepareCached(schema.getInsertEvent());
+			this.insertOpenEvent = schema.hasOpenTable() ? session.prepareCached(schema
+					.getInsertOpenEvent()) : null;
+			this.insertProducer = session.prepareCached(schema.getInsert(
+					FramesocTable.EVENT_PRODUCER.toString(), "ID, NAME, TYPE, LOCAL_ID, PARENT_ID"));
+			this.insertType = session.prepareCached(schema.getInsert(
+					FramesocTable.EVENT_TYPE.toString(), "ID, NAME, CATEGORY"));
+		}
+
+		@Override
+		public CassandraAggregator call() throws Exception {
+			CassandraAggregator aggregator = new CassandraAggregator(schema);
+			try {
+				while (!cancelled.get()) {
+					List<String[]> block = queue.poll(1, TimeUnit.SECONDS);
+					if (block == END) {
+						break;
+					}
+					if (block != null) {
+						write(block, aggregator);
+					}
+				}
+				batcher.flush();
+				return aggregator;
+			} catch (Exception e) {
+				cancelled.set(true);
+				throw e;
+			}
+		}
+
+		private void write(List<String[]> block, CassandraAggregator aggregator)
+				throws InterruptedException, SoCTraceException {
+			for (String[] f : block) {
+				try {
+					switch (f[0]) {
+					case EVENT:
+						int typeId = Integer.valueOf(f[3]);
+						int producerId = Integer.valueOf(f[4]);
+						int category = Integer.valueOf(f[5]);
+						long timestamp = Long.valueOf(f[6]);
+						long lpar = Long.valueOf(f[7]);
+						int id = Integer.valueOf(f[1]);
+						int cpu = Integer.valueOf(f[2]);
+						double dpar = Double.valueOf(f[8]);
+						batcher.add(schema.bindEvent(insertEvent, id, cpu, typeId, producerId,
+								category, timestamp, lpar, dpar));
+						for (BoundStatement open : schema.bindOpenEvent(insertOpenEvent, id, cpu,
+								typeId, producerId, category, timestamp, lpar, dpar)) {
+							batcher.add(open);
+						}
+						aggregator.addEvent(typeId, producerId, category, timestamp, lpar);
+						imported.incrementAndGet();
+						break;
+					case PRODUCER:
+						batcher.add(schema.bind(insertProducer, Integer.valueOf(f[1]), f[2], f[3],
+								f[4], Integer.valueOf(f[5])));
+						break;
+					case TYPE:
+						batcher.add(schema.bind(insertType, Integer.valueOf(f[1]), f[2],
+								Integer.valueOf(f[3])));
+						break;
+					default:
+						throw new SoCTraceException("Unknown record: " + f[0]);
+					}
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+					throw new SoCTraceException("Wrong record: " + Arrays.toString(f), e);
+				}
+			}
+		}
+	}
+
+}
@@ -15,14 +15,20 @@ import fr.inria.soctrace.lib.model.Trace;
 import fr.inria.soctrace.lib.model.utils.SoCTraceException;
 import fr.inria.soctrace.lib.storage.SystemDBObject;
 
+/**
+ * Framesoc metadata of a Cassandra trace. The trace database name is the keyspace name, or
+ * keyspace.trace for a trace of a shared keyspace (see
+ * {@link fr.inria.soctrace.framesoc.cassandra.loader.CassandraSession#getDbName(String, String)}
+ * ).
+ */
 public class CassandraTraceMetadata extends AbstractTraceMetadataManager {
 
 	private long min;
 	private long max;
-	private int events;
+	private long events;
 	private String dbName;
 	
-	public CassandraTraceMetadata(SystemDBObject sysDB, String dbName, long min, long max, int events)
+	public CassandraTraceMetadata(SystemDBObject sysDB, String dbName, long min, long max, long events)
 			throws SoCTraceException {
 		super(sysDB);
 		this.dbName = dbName;
@@ -41,7 +47,8 @@ public class CassandraTraceMetadata extends AbstractTraceMetadataManager {
 		trace.setDbName(dbName);
 		trace.setMinTimestamp(min);
 		trace.setMaxTimestamp(max);
-		trace.setNumberOfEvents(events);
+		// the trace model has an int number of events
+		trace.setNumberOfEvents((int) Math.min(Integer.MAX_VALUE, events));
 	}
 	
 }
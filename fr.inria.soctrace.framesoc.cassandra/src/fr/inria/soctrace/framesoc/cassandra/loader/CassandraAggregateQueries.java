@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Inserts and queries of the aggregate tables of a {@link CassandraSchema}.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+class CassandraAggregateQueries {
+
+	private final CassandraSchema schema;
+
+	CassandraAggregateQueries(CassandraSchema schema) {
+		this.schema = schema;
+	}
+
+	/**
+	 * @return the insert query of the type counts: SLICE, BUCKET, EVENT_TYPE_ID, COUNT
+	 */
+	String getInsertTypeCount() {
+		return schema.getInsert(CassandraSchema.TYPE_COUNT, "SLICE, BUCKET, EVENT_TYPE_ID, COUNT");
+	}
+
+	/**
+	 * @return the insert query of the producer busy times: SLICE, BUCKET, EVENT_PRODUCER_ID, BUSY
+	 */
+	String getInsertProducerBusy() {
+		return schema.getInsert(CassandraSchema.PRODUCER_BUSY,
+				"SLICE, BUCKET, EVENT_PRODUCER_ID, BUSY");
+	}
+
+	/**
+	 * Get the queries reading the rows of an aggregate table for the buckets intersecting a time
+	 * interval, one query per slice. The selected columns are BUCKET, the id column and the
+	 * value column.
+	 *
+	 * @param session
+	 *            Cassandra session, caching the prepared statements
+	 * @param table
+	 *            {@value CassandraSchema#TYPE_COUNT} or {@value CassandraSchema#PRODUCER_BUSY}
+	 * @param t0
+	 *            interval start
+	 * @param t1
+	 *            interval end
+	 * @return the queries
+	 */
+	List<Statement> getAggregateQueries(CassandraSession session, String table, long t0,
+			long t1) {
+		String columns = table.equals(CassandraSchema.TYPE_COUNT) ? "BUCKET, EVENT_TYPE_ID, COUNT"
+				: "BUCKET, EVENT_PRODUCER_ID, BUSY";
+		PreparedStatement ps = session.prepareCached(schema.getSelect(table, columns,
+				"SLICE = ? AND BUCKET >= ? AND BUCKET <= ?"));
+		List<Statement> queries = new ArrayList<>();
+		long b0 = schema.getAggregateBucket(t0);
+		long b1 = schema.getAggregateBucket(t1);
+		for (long slice = schema.getAggregateSlice(b0); slice <= schema.getAggregateSlice(b1);
+				slice++) {
+			queries.add(schema.bind(ps, slice, b0, b1));
+		}
+		return queries;
+	}
+
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraLoaderConfig.Property;
+import fr.inria.soctrace.lib.model.EventProducer;
+import fr.inria.soctrace.lib.model.EventType;
+import fr.inria.soctrace.lib.model.utils.ModelConstants.EventCategory;
+
+/**
+ * Producers, types and categories of the events to load.
+ *
+ * <p>
+ * A null set means no restriction. With the TIME_BUCKET_PRODUCER layout, the producer filter
+ * selects the partitions to read, so the events of the other producers are not even sent by
+ * the cluster. The other conditions cannot be expressed in CQL on the EVENT table (they are on
+ * regular columns), and are checked on each row before creating the event: with the other
+ * layouts, all the rows of the loaded window are still downloaded.
+ *
+ * <p>
+ * The loader filter is read from the FILTER_PRODUCERS, FILTER_TYPES and FILTER_CATEGORIES
+ * variables of the loader configuration, unless it is set with
+ * {@link CassandraEventLoader#setFilter(CassandraEventFilter)}.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraEventFilter {
+
+	/**
+	 * Filter accepting all the events
+	 */
+	public static final CassandraEventFilter ALL = new CassandraEventFilter(null, null, null);
+
+	private final Set<Integer> producers;
+	private final Set<Integer> types;
+	private final Set<Integer> categories;
+
+	/**
+	 * @param producers
+	 *            producer ids, null for all
+	 * @param types
+	 *            type ids, null for all
+	 * @param categories
+	 *            categories, null for all
+	 */
+	public CassandraEventFilter(Collection<Integer> producers, Collection<Integer> types,
+			Collection<Integer> categories) {
+		this.producers = copy(producers);
+		this.types = copy(types);
+		this.categories = copy(categories);
+	}
+
+	/**
+	 * Build the filter of a trace from the loader configuration, matching the configured
+	 * producer and type names against the ones of the trace.
+	 *
+	 * @param producers
+	 *            trace producers
+	 * @param types
+	 *            trace types
+	 * @return the configured filter, {@link #ALL} if no filter is configured
+	 */
+	public static CassandraEventFilter fromConfig(Map<Integer, EventProducer> producers,
+			Map<Integer, EventType> types) {
+		CassandraLoaderConfig config = CassandraLoaderConfig.getInstance();
+		Set<String> producerNames = split(config.get(Property.FILTER_PRODUCERS, null));
+		Set<String> typeNames = split(config.get(Property.FILTER_TYPES, null));
+		Set<String> categoryNames = split(config.get(Property.FILTER_CATEGORIES, null));
+		if (producerNames == null && typeNames == null && categoryNames == null) {
+			return ALL;
+		}
+		Set<Integer> producerIds = null;
+		if (producerNames != null) {
+			producerIds = new HashSet<>();
+			for (EventProducer ep : producers.values()) {
+				if (producerNames.contains(ep.getName())) {
+					producerIds.add(ep.getId());
+				}
+			}
+		}
+		Set<Integer> typeIds = null;
+		if (typeNames != null) {
+			typeIds = new HashSet<>();
+			for (EventType et : types.values()) {
+				if (typeNames.contains(et.getName())) {
+					typeIds.add(et.getId());
+				}
+			}
+		}
+		Set<Integer> categories = null;
+		if (categoryNames != null) {
+			categories = new HashSet<>();
+			for (String name : categoryNames) {
+				categories.add(getCategory(name));
+			}
+		}
+		return new CassandraEventFilter(producerIds, typeIds, categories);
+	}
+
+	/**
+	 * @return true if the filter accepts all the events
+	 */
+	public boolean isAll() {
+		return producers == null && types == null && categories == null;
+	}
+
+	/**
+	 * Restrict a set of producer ids to the ones accepted by the filter.
+	 *
+	 * @param all
+	 *            producer ids
+	 * @return the accepted producer ids
+	 */
+	public Collection<Integer> getProducers(Collection<Integer> all) {
+		if (producers == null) {
+			return all;
+		}
+		Set<Integer> selected = new HashSet<>(all);
+		selected.retainAll(producers);
+		return selected;
+	}
+
+	/**
+	 * Check if the events of a category may be accepted.
+	 */
+	public boolean acceptsCategory(int category) {
+		return categories == null || categories.contains(category);
+	}
+
+	/**
+	 * Check if an event is accepted.
+	 */
+	public boolean accept(int category, int typeId, int producerId) {
+		return (categories == null || categories.contains(category))
+				&& (types == null || types.contains(typeId))
+				&& (producers == null || producers.contains(producerId));
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((producers == null) ? 0 : producers.hashCode());
+		result = prime * result + ((types == null) ? 0 : types.hashCode());
+		result = prime * result + ((categories == null) ? 0 : categories.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof CassandraEventFilter))
+			return false;
+		CassandraEventFilter other = (CassandraEventFilter) obj;
+		return equals(producers, other.producers) && equals(types, other.types)
+				&& equals(categories, other.categories);
+	}
+
+	private static boolean equals(Set<Integer> s1, Set<Integer> s2) {
+		return (s1 == null) ? s2 == null : s1.equals(s2);
+	}
+
+	private static Set<String> split(String values) {
+		if (values == null) {
+			return null;
+		}
+		Set<String> names = new HashSet<>();
+		for (String name : values.split(",")) {
+			if (!name.trim().isEmpty()) {
+				names.add(name.trim());
+			}
+		}
+		return names;
+	}
+
+	private static int getCategory(String name) {
+		switch (name.toUpperCase()) {
+		case "PUNCTUAL_EVENT":
+			return EventCategory.PUNCTUAL_EVENT;
+		case "STATE":
+			return EventCategory.STATE;
+		case "LINK":
+			return EventCategory.LINK;
+		case "VARIABLE":
+			return EventCategory.VARIABLE;
+		default:
+			throw new IllegalArgumentException("Unknown event category: " + name);
+		}
+	}
+
+	private static Set<Integer> copy(Collection<Integer> values) {
+		if (values == null) {
+			return null;
+		}
+		return Collections.unmodifiableSet(new HashSet<>(values));
+	}
+
+}
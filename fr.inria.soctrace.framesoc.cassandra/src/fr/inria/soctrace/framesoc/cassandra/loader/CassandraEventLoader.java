@@ -10,19 +10,34 @@
  ******************************************************************************/
 package fr.inria.soctrace.framesoc.cassandra.loader;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
-
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraLoaderConfig.Property;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraMetadataCache.Metadata;
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema.Layout;
 import fr.inria.soctrace.framesoc.ui.gantt.model.IEventLoader;
 import fr.inria.soctrace.framesoc.ui.gantt.model.ReducedEvent;
 import fr.inria.soctrace.framesoc.ui.loaders.LoaderUtils;
@@ -32,9 +47,7 @@ import fr.inria.soctrace.lib.model.EventProducer;
 import fr.inria.soctrace.lib.model.EventType;
 import fr.inria.soctrace.lib.model.Trace;
 import fr.inria.soctrace.lib.model.utils.ModelConstants.EventCategory;
-import fr.inria.soctrace.lib.query.conditions.ConditionsConstants.ComparisonOperation;
 import fr.inria.soctrace.lib.storage.DBObject.DBMode;
-import fr.inria.soctrace.lib.storage.utils.SQLConstants.FramesocTable;
 import fr.inria.soctrace.lib.utils.DeltaManager;
 
 /**
@@ -49,6 +62,42 @@ public class CassandraEventLoader implements IEventLoader {
 
 	// constants
 	private final int EVENTS_PER_QUERY = 100000;
+	private static final int DEFAULT_PREFETCH_DEPTH = 4;
+	private static final int DEFAULT_MAX_CONCURRENT_QUERIES = 64;
+	private static final int DEFAULT_FETCH_SIZE = 5000;
+	private static final int DEFAULT_CHUNK_SIZE = 10000;
+	private static final long CANCEL_POLL_MS = 50;
+
+	/**
+	 * Time interval to load, with the queries already sent, or the cached events.
+	 */
+	private class PendingInterval {
+		final boolean first;
+		final boolean last;
+		final long t0;
+		final long t1;
+		final CassandraIntervalCache.Key key;
+		final CassandraIntervalCache.Entry cached;
+		final List<ResultSetFuture> futures = new ArrayList<>();
+		private List<Statement> queries = null;
+
+		PendingInterval(String keyspace, boolean first, boolean last, long t0, long t1) {
+			this.first = first;
+			this.last = last;
+			this.t0 = t0;
+			this.t1 = t1;
+			this.key = new CassandraIntervalCache.Key(keyspace, t0, t1, first, last, fFilter);
+			this.cached = CassandraIntervalCache.getInstance().get(key);
+		}
+
+		List<Statement> getQueries() {
+			if (queries == null) {
+				queries = (cached != null) ? Collections.<Statement> emptyList()
+						: CassandraEventLoader.this.getQueries(first, last, t0, t1);
+			}
+			return queries;
+		}
+	}
 
 	// set by the user
 	private Trace fTrace = null;
@@ -56,45 +105,49 @@ public class CassandraEventLoader implements IEventLoader {
 
 	// current visualized trace data
 	private CassandraSession fSession = null;
-	private Map<Integer, EventProducer> fProducers = null;
-	private boolean fProducersLoaded = false;
-	private Map<Integer, EventType> fTypes = null;
-	private boolean fTypesLoaded = false;
+	private ListenableFuture<Metadata> fMetadata = null;
 	private TimeInterval fTimeInterval;
 	private long fLatestStart;
-
+	// null until read from the configuration
+	private CassandraEventFilter fFilter = null;
+
+	// intervals of the window being loaded
+	private List<PendingInterval> fPending = null;
+	private int fCurrent = 0;
+	private int fOutstanding = 0;
+
+	/**
+	 * Get the producers of the current trace, waiting for their loading if needed: use
+	 * {@link #getMetadata()} not to block.
+	 */
 	@Override
 	public Map<Integer, EventProducer> getProducers() {
-		if (fProducersLoaded)
-			return fProducers;
-		fProducers = new HashMap<Integer, EventProducer>();
-		String query = "SELECT * FROM EVENT_PRODUCER;";
-		ResultSet rs = getCassandraSession().execute(query);
-		for (Row r : rs) {
-			EventProducer ep = new EventProducer(r.getInt(0));
-			ep.setName(r.getString(1));
-			ep.setType("test");
-			ep.setLocalId("T" + ep.getId());
-			fProducers.put(ep.getId(), ep);
-		}
-		fProducersLoaded = true;
-		return fProducers;
+		// copy: the cached metadata is shared and not modifiable
+		return new HashMap<>(Futures.getUnchecked(getMetadata()).getProducers());
 	}
 
+	/**
+	 * Get the types of the current trace, waiting for their loading if needed: use
+	 * {@link #getMetadata()} not to block.
+	 */
 	@Override
 	public Map<Integer, EventType> getTypes() {
-		if (fTypesLoaded)
-			return fTypes;
-		fTypes = new HashMap<Integer, EventType>();
-		String query = "SELECT * FROM EVENT_TYPE;";
-		ResultSet rs = fSession.execute(query);
-		for (Row r : rs) {
-			EventType et = new EventType(r.getInt(0), EventCategory.STATE);
-			et.setName(r.getString(1));
-			fTypes.put(et.getId(), et);
+		// copy: the cached metadata is shared and not modifiable
+		return new HashMap<>(Futures.getUnchecked(getMetadata()).getTypes());
+	}
+
+	/**
+	 * Get the producers and types of the current trace. Their loading starts as soon as the
+	 * trace is set, and is shared with the other loaders of the same trace.
+	 * 
+	 * @return the future metadata
+	 */
+	public ListenableFuture<Metadata> getMetadata() {
+		if (fMetadata == null) {
+			Assert.isNotNull(fTrace, "Null trace in event loader");
+			fMetadata = CassandraMetadataCache.getInstance().get(fTrace.getDbName());
 		}
-		fTypesLoaded = true;
-		return fTypes;
+		return fMetadata;
 	}
 
 	@Override
@@ -102,6 +155,10 @@ public class CassandraEventLoader implements IEventLoader {
 		if (fTrace != trace) {
 			clean();
 			fTrace = trace;
+			if (trace != null) {
+				// start loading the metadata, without waiting
+				getMetadata();
+			}
 		}
 	}
 
@@ -117,6 +174,28 @@ public class CassandraEventLoader implements IEventLoader {
 		clean();
 	}
 
+	/**
+	 * Get the overview of the current trace, computed from the aggregate tables written at
+	 * import time. Check {@link CassandraOverview#isAvailable()} before using it.
+	 * 
+	 * @return the trace overview
+	 */
+	public CassandraOverview getOverview() {
+		return new CassandraOverview(getCassandraSession());
+	}
+
+	/**
+	 * Set the producers, types and categories of the events to load in the next windows,
+	 * overriding the filter of the loader configuration. The filter is read again from the
+	 * configuration when the trace changes.
+	 * 
+	 * @param filter
+	 *            event filter
+	 */
+	public void setFilter(CassandraEventFilter filter) {
+		fFilter = (filter == null) ? CassandraEventFilter.ALL : filter;
+	}
+
 	public boolean checkCancel(IProgressMonitor monitor) {
 		if (monitor.isCanceled()) {
 			fQueue.setStop();
@@ -128,11 +207,20 @@ public class CassandraEventLoader implements IEventLoader {
 	@Override
 	public void loadWindow(long start, long end, IProgressMonitor monitor) {
 
+		long windowStart = System.nanoTime();
 		try {
 			Assert.isNotNull(fTrace, "Null trace in event loader");
 			Assert.isNotNull(fQueue, "Null queue in event loader");
 			start = Math.max(fTrace.getMinTimestamp(), start);
 			end = Math.min(fTrace.getMaxTimestamp(), end);
+			if (fFilter == null) {
+				Metadata metadata = Futures.getUnchecked(getMetadata());
+				fFilter = CassandraEventFilter.fromConfig(metadata.getProducers(),
+						metadata.getTypes());
+				if (!fFilter.isAll()) {
+					logger.debug("Configured event filter on {}", fTrace.getDbName());
+				}
+			}
 
 			fTimeInterval = new TimeInterval(Long.MAX_VALUE, Long.MIN_VALUE);
 
@@ -141,31 +229,48 @@ public class CassandraEventLoader implements IEventLoader {
 			long intervalDuration = LoaderUtils.getIntervalDuration(fTrace, EVENTS_PER_QUERY);
 			int totalWork = (int) ((double) traceDuration / intervalDuration);
 
-			// read the time window, interval by interval
+			// split the time window in intervals aligned on a grid starting at the trace start,
+			// so that the same intervals are loaded (and cached) for close windows
+			String keyspace = fTrace.getDbName();
+			List<PendingInterval> intervals = new ArrayList<>();
+			long min = fTrace.getMinTimestamp();
+			long t0 = min + (start - min) / intervalDuration * intervalDuration;
+			while (t0 <= end) {
+				long t1 = t0 + intervalDuration;
+				boolean last = (t1 >= fTrace.getMaxTimestamp());
+				if (last) {
+					t1 = fTrace.getMaxTimestamp();
+				}
+				intervals.add(new PendingInterval(keyspace, false, last, t0, t1));
+				if (last) {
+					break;
+				}
+				t0 = t1;
+			}
+
+			// load states and links intersecting the start of the first interval, at the end
+			if (!intervals.isEmpty() && intervals.get(0).t0 != min && acceptsSpanning()) {
+				PendingInterval firstInterval = intervals.get(0);
+				intervals.add(new PendingInterval(keyspace, true, false, firstInterval.t0,
+						firstInterval.t0));
+			}
+
+			// read the time window, interval by interval, the queries of the next intervals
+			// being sent in advance
 			monitor.beginTask("Loading Gantt Chart", totalWork);
 			int oldWorked = 0;
-
 			int totalEvents = 0;
-			TimeInterval firstInterval = null;
-			boolean first = true;
-			long t0 = start;
-			while (t0 < end) {
+			fPending = intervals;
+			fOutstanding = 0;
+			for (fCurrent = 0; fCurrent < intervals.size(); fCurrent++) {
 				// check if cancelled
 				if (checkCancel(monitor)) {
 					return;
 				}
 
-				// load interval
-				long t1 = Math.min(end, t0 + intervalDuration);
-				if (first) {
-					// store the first time interval for later loading
-					firstInterval = new TimeInterval(t0, t1);
-					first = false;
-				}
-				boolean last = (t1 >= end);
-				List<ReducedEvent> events = loadInterval(false, last, t0, t1, monitor);
-				totalEvents = debug(events, totalEvents);
-				if (checkCancel(monitor)) {
+				// load interval, pushing the events to the queue page by page
+				totalEvents = loadInterval(intervals.get(fCurrent), totalEvents, monitor);
+				if (checkCancel(monitor) || fQueue.isStop()) {
 					return;
 				}
 
@@ -173,96 +278,314 @@ public class CassandraEventLoader implements IEventLoader {
 				int worked = (int) ((double) (fLatestStart - start) / intervalDuration);
 				monitor.worked(Math.max(0, worked - oldWorked));
 				oldWorked = worked;
-				t0 = t1;
-
-				fQueue.push(events, new TimeInterval(fTimeInterval));
-			}
-
-			// load states and links intersecting the start of the first interval
-			if (firstInterval != null && firstInterval.startTimestamp != fTrace.getMinTimestamp()) {
-				List<ReducedEvent> events = loadInterval(true, (firstInterval.endTimestamp >= end),
-						firstInterval.startTimestamp, firstInterval.endTimestamp, monitor);
-				totalEvents = debug(events, totalEvents);
-				if (checkCancel(monitor)) {
-					return;
-				}
-				fQueue.push(events, new TimeInterval(fTimeInterval));
 			}
 
 			fQueue.setComplete();
 
 		} finally {
+			cancelPending();
 			if (!fQueue.isStop() && !fQueue.isComplete()) {
 				// something went wrong, respect the queue contract anyway
 				fQueue.setStop();
 			}
+			CassandraLoaderMetrics metrics = CassandraLoaderMetrics.getInstance();
+			metrics.window(System.nanoTime() - windowStart);
+			metrics.logSummary();
 			monitor.done();
 		}
 	}
 
-	private List<ReducedEvent> loadInterval(boolean first, boolean last, long t0, long t1,
-			IProgressMonitor monitor) {
-		List<ReducedEvent> events = new LinkedList<>();
+	/**
+	 * Read the results of the queries of an interval, pushing them to the queue in chunks of at
+	 * most CHUNK_SIZE events. Results are fetched FETCH_SIZE rows at a time: the next page is
+	 * requested when half of the current one has been read, so only the pages of the queries
+	 * being read are kept in memory, whatever the interval density.
+	 * 
+	 * @return the total number of events read so far
+	 */
+	private int loadInterval(PendingInterval interval, int totalEvents, IProgressMonitor monitor) {
+		if (interval.cached != null) {
+			return loadCachedInterval(interval, totalEvents);
+		}
+		CassandraLoaderConfig config = CassandraLoaderConfig.getInstance();
+		int chunkSize = Math.max(1, config.getInt(Property.CHUNK_SIZE, DEFAULT_CHUNK_SIZE));
+		int prefetchThreshold = getFetchSize() / 2;
+		ReducedEventBatch events = new ReducedEventBatch(chunkSize);
+		// chunks kept for the cache, dropped as soon as the interval cannot be cached
+		CassandraIntervalCache cache = CassandraIntervalCache.getInstance();
+		List<ReducedEventBatch> chunks = cache.isEnabled() ? new ArrayList<ReducedEventBatch>()
+				: null;
+		long chunkBytes = 0;
+		CassandraLoaderMetrics metrics = CassandraLoaderMetrics.getInstance();
 		try {
 			DeltaManager dm = new DeltaManager();
-			dm.start();
-			ResultSet rs = getCassandraSession().execute(getQuery(t0, t1, first, last));
-			logger.debug(dm.endMessage("exec query"));
-			dm.start();
-			for (Row row : rs) {
-				ReducedEvent ev = new CassandraReducedEvent(row);
-				if (first
-						&& (ev.category != EventCategory.STATE && ev.category != EventCategory.LINK)) {
-					continue;
+			for (int i = 0; i < interval.getQueries().size(); i++) {
+				dm.start();
+				prefetch();
+				ResultSetFuture future = interval.futures.get(i);
+				if (!await(future, monitor)) {
+					return totalEvents;
 				}
-				events.add(ev);
-				if (ev.timestamp > fLatestStart)
-					fLatestStart = ev.timestamp;
-				if (fTimeInterval.startTimestamp > ev.timestamp)
-					fTimeInterval.startTimestamp = ev.timestamp;
-				long end = ((ev.category == 0) ? ev.timestamp : ev.endTimestamp);
-				if (fTimeInterval.endTimestamp < end)
-					fTimeInterval.endTimestamp = end;
-				if (monitor.isCanceled()) {
-					fQueue.setStop();
-					break;
+				ResultSet rs = future.get();
+				fOutstanding--;
+				prefetch();
+				logger.debug(dm.endMessage("exec query"));
+				dm.start();
+				// rows decoded since the last wait, and when the decoding started
+				int decoded = 0;
+				// next page already requested
+				boolean fetching = false;
+				long decodeStart = System.nanoTime();
+				while (true) {
+					int available = rs.getAvailableWithoutFetching();
+					if (available == 0) {
+						metrics.decode(System.nanoTime() - decodeStart);
+						metrics.rows(decoded);
+						decoded = 0;
+						// wait for the next page, if any, without blocking cancellation
+						if (rs.isFullyFetched()) {
+							break;
+						}
+						if (!fetching) {
+							metrics.page();
+						}
+						if (!await(rs.fetchMoreResults(), monitor)) {
+							return totalEvents;
+						}
+						fetching = false;
+						decodeStart = System.nanoTime();
+						continue;
+					}
+					if (available == prefetchThreshold && !fetching && !rs.isFullyFetched()) {
+						metrics.page();
+						rs.fetchMoreResults();
+						fetching = true;
+					}
+					Row row = rs.one();
+					decoded++;
+					int e = events.add(row);
+					if ((interval.first && !isSpanning(events.getCategory(e),
+							events.getEndTimestamp(e), interval.t0))
+							|| !fFilter.accept(events.getCategory(e), events.getTypeId(e),
+									events.getProducerId(e))) {
+						events.removeLast();
+						continue;
+					}
+					updateLoaded(events, e);
+					if (events.size() >= chunkSize) {
+						totalEvents = debug(events, totalEvents);
+						fQueue.push(events, new TimeInterval(fTimeInterval));
+						if (chunks != null) {
+							chunks.add(events);
+							chunkBytes += events.getByteSize();
+							if (!cache.accepts(chunkBytes)) {
+								chunks = null;
+							}
+						}
+						events = new ReducedEventBatch(chunkSize);
+					}
+					if (monitor.isCanceled()) {
+						fQueue.setStop();
+						return totalEvents;
+					}
 				}
+				logger.debug(dm.endMessage("reduced event creation"));
+			}
+			totalEvents = debug(events, totalEvents);
+			fQueue.push(events, new TimeInterval(fTimeInterval));
+			if (chunks != null) {
+				chunks.add(events);
+				cache.put(interval.key, new CassandraIntervalCache.Entry(chunks));
 			}
-			logger.debug(dm.endMessage("reduced event creation"));
 
 		} catch (Exception e) {
 			e.printStackTrace();
 			fQueue.setStop();
 		}
-		return events;
+		return totalEvents;
 	}
 
-	private String getQuery(long t0, long t1, boolean first, boolean last) {
-		StringBuilder sb = new StringBuilder();
-		sb.append("SELECT " + ReducedEvent.SELECT_COLUMNS + " FROM " + FramesocTable.EVENT
-				+ " WHERE ");
-		ComparisonOperation endComp = (last) ? ComparisonOperation.LE : ComparisonOperation.LT;
+	/**
+	 * Push the cached events of an interval to the queue.
+	 * 
+	 * @return the total number of events read so far
+	 */
+	private int loadCachedInterval(PendingInterval interval, int totalEvents) {
+		for (ReducedEventBatch events : interval.cached.getChunks()) {
+			for (int e = 0; e < events.size(); e++) {
+				updateLoaded(events, e);
+			}
+			totalEvents = debug(events, totalEvents);
+			fQueue.push(events, new TimeInterval(fTimeInterval));
+		}
+		logger.debug("Interval [{}, {}] read from cache", interval.t0, interval.t1);
+		return totalEvents;
+	}
+
+	/**
+	 * Update the loaded time interval with an event of a batch.
+	 */
+	private void updateLoaded(ReducedEventBatch events, int e) {
+		long timestamp = events.getTimestamp(e);
+		if (timestamp > fLatestStart)
+			fLatestStart = timestamp;
+		if (fTimeInterval.startTimestamp > timestamp)
+			fTimeInterval.startTimestamp = timestamp;
+		long end = ((events.getCategory(e) == 0) ? timestamp : events.getEndTimestamp(e));
+		if (fTimeInterval.endTimestamp < end)
+			fTimeInterval.endTimestamp = end;
+	}
+
+	/**
+	 * Wait for a driver future, checking the monitor every {@value #CANCEL_POLL_MS} ms. If the
+	 * monitor is cancelled, all the pending queries are cancelled, which frees their connections
+	 * immediately, and the queue is stopped.
+	 * 
+	 * @return true if the future is done, false if cancelled
+	 */
+	private boolean await(Future<?> future, IProgressMonitor monitor)
+			throws InterruptedException, ExecutionException {
+		long waitStart = System.nanoTime();
+		while (true) {
+			try {
+				future.get(CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+				CassandraLoaderMetrics.getInstance().network(System.nanoTime() - waitStart);
+				return true;
+			} catch (TimeoutException e) {
+				if (monitor.isCanceled()) {
+					future.cancel(true);
+					cancelPending();
+					fQueue.setStop();
+					return false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send the queries of the current interval and of the next ones, up to the prefetch depth,
+	 * without exceeding the max number of queries sent and not consumed yet. Queries are sent in
+	 * order, so the next interval is not started before all the queries of the current one are
+	 * sent: the remaining ones are sent as the previous ones are consumed, and the next query of
+	 * the current interval can always be sent once all its previous ones are consumed.
+	 */
+	private void prefetch() {
+		CassandraLoaderConfig config = CassandraLoaderConfig.getInstance();
+		int depth = Math.max(1, config.getInt(Property.PREFETCH_DEPTH, DEFAULT_PREFETCH_DEPTH));
+		int maxQueries = Math.max(1, config.getInt(Property.MAX_CONCURRENT_QUERIES,
+				DEFAULT_MAX_CONCURRENT_QUERIES));
+		int last = Math.min(fPending.size(), fCurrent + depth);
+		for (int i = fCurrent; i < last; i++) {
+			PendingInterval interval = fPending.get(i);
+			List<Statement> queries = interval.getQueries();
+			while (interval.futures.size() < queries.size()) {
+				if (fOutstanding >= maxQueries) {
+					return;
+				}
+				Statement statement = queries.get(interval.futures.size());
+				statement.setFetchSize(getFetchSize());
+				statement.setConsistencyLevel(getReadConsistency());
+				interval.futures.add(executeAsync(statement));
+				fOutstanding++;
+			}
+		}
+	}
+
+	/**
+	 * Send a query, recording its latency when the first page arrives.
+	 */
+	private ResultSetFuture executeAsync(Statement statement) {
+		final ResultSetFuture future = getCassandraSession().executeAsync(statement);
+		final long sent = System.nanoTime();
+		future.addListener(new Runnable() {
+			@Override
+			public void run() {
+				if (!future.isCancelled()) {
+					CassandraLoaderMetrics.getInstance().query(System.nanoTime() - sent);
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		return future;
+	}
+
+	private int getFetchSize() {
+		CassandraLoaderConfig config = CassandraLoaderConfig.getInstance();
+		return Math.max(1, config.getInt(Property.FETCH_SIZE, DEFAULT_FETCH_SIZE));
+	}
+
+	private ConsistencyLevel getReadConsistency() {
+		return CassandraLoaderConfig.getInstance().getEnum(Property.READ_CONSISTENCY,
+				ConsistencyLevel.ONE);
+	}
+
+	/**
+	 * Cancel the queries sent in advance and not consumed.
+	 */
+	private void cancelPending() {
+		if (fPending == null) {
+			return;
+		}
+		for (PendingInterval interval : fPending) {
+			for (ResultSetFuture future : interval.futures) {
+				future.cancel(true);
+			}
+		}
+		fPending = null;
+		fOutstanding = 0;
+	}
+
+	private List<Statement> getQueries(boolean first, boolean last, long t0, long t1) {
+		CassandraSession session = getCassandraSession();
+		CassandraSchema schema = session.getSchema();
+		Collection<Integer> producers = null;
+		if (schema.getLayout() == Layout.TIME_BUCKET_PRODUCER) {
+			// the producer filter is pushed down: only the selected partitions are read
+			producers = fFilter.getProducers(Futures.getUnchecked(getMetadata()).getProducers()
+					.keySet());
+		}
+		List<Statement> queries;
 		if (first) {
 			// states and links: start < t0 and end >= t0
-			// condition on category done manually in loadInterval for first interval
-			sb.append("(TIMESTAMP) < (" + t0 + ") AND (TIMESTAMP, LPAR) >= ("
-					+ fTrace.getMinTimestamp() + ", " + t0 + ") ALLOW FILTERING;");
+			// conditions on category and end done manually in loadInterval for first interval
+			queries = schema.getFirstIntervalQueries(session, ReducedEvent.SELECT_COLUMNS,
+					fTrace.getMinTimestamp(), t0, producers);
 		} else {
 			// all events: start >= t0 and start < t1 (last interval start >= t0 and start <= t1)
-			sb.append(" TIMESTAMP >= " + t0 + " AND TIMESTAMP " + endComp + t1
-					+ " ALLOW FILTERING; ");
+			queries = schema.getIntervalQueries(session, ReducedEvent.SELECT_COLUMNS, t0, t1,
+					last, producers);
+		}
+		logger.debug("Queries: {}", queries.size());
+		return queries;
+	}
+
+	/**
+	 * Check if an event of the first interval query intersects the start of the window.
+	 */
+	private boolean isSpanning(int category, long endTimestamp, long t0) {
+		if (category != EventCategory.STATE && category != EventCategory.LINK) {
+			return false;
+		}
+		return endTimestamp >= t0;
+	}
+
+	/**
+	 * @return true if the filter accepts states or links
+	 */
+	private boolean acceptsSpanning() {
+		for (int category : new int[] { EventCategory.STATE, EventCategory.LINK }) {
+			if (fFilter.acceptsCategory(category)) {
+				return true;
+			}
 		}
-		logger.debug("Query: " + sb.toString());
-		return sb.toString();
+		return false;
 	}
 
 	private void clean() {
-		fProducersLoaded = false;
-		fTypesLoaded = false;
-		fProducers = new HashMap<Integer, EventProducer>();
-		fTypes = new HashMap<Integer, EventType>();
+		fMetadata = null;
+		fFilter = null;
 		fLatestStart = Long.MIN_VALUE;
 		CassandraSession.finalClose(fSession);
+		fSession = null;
 	}
 
 	private CassandraSession getCassandraSession() {
@@ -277,8 +600,10 @@ public class CassandraEventLoader implements IEventLoader {
 		totalEvents += events.size();
 		logger.debug("events read : {}", events.size());
 		logger.debug("total events: {}", totalEvents);
-		for (ReducedEvent event : events) {
-			logger.trace(event.toString());
+		if (logger.isTraceEnabled()) {
+			for (ReducedEvent event : events) {
+				logger.trace(event.toString());
+			}
 		}
 		return totalEvents;
 	}
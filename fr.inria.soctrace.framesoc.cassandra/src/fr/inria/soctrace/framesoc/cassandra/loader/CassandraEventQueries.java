@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Statement;
+
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema.Layout;
+import fr.inria.soctrace.lib.model.utils.ModelConstants.EventCategory;
+import fr.inria.soctrace.lib.storage.utils.SQLConstants.FramesocTable;
+
+/**
+ * Inserts and time range queries of the EVENT and {@value CassandraSchema#OPEN} tables, for the
+ * layout of a {@link CassandraSchema}.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+class CassandraEventQueries {
+
+	private static final String EVENT_COLUMNS = "ID, CPU, EVENT_TYPE_ID, EVENT_PRODUCER_ID,"
+			+ " CATEGORY, TIMESTAMP, LPAR, DPAR";
+
+	private final CassandraSchema schema;
+
+	CassandraEventQueries(CassandraSchema schema) {
+		this.schema = schema;
+	}
+
+	/**
+	 * @return the event insert query, to be bound with {@link #bindEvent}
+	 */
+	String getInsertEvent() {
+		if (schema.getLayout() == Layout.ID) {
+			return schema.getInsert(FramesocTable.EVENT.toString(), EVENT_COLUMNS);
+		}
+		return schema.getInsert(FramesocTable.EVENT.toString(), "BUCKET, " + EVENT_COLUMNS);
+	}
+
+	/**
+	 * Bind the values of an event to the statement prepared from {@link #getInsertEvent()}.
+	 */
+	BoundStatement bindEvent(PreparedStatement ps, int id, int cpu, int typeId, int producerId,
+			int category, long timestamp, long lpar, double dpar) {
+		if (schema.getLayout() == Layout.ID) {
+			return schema.bind(ps, id, cpu, typeId, producerId, category, timestamp, lpar, dpar);
+		}
+		return schema.bind(ps, schema.getBucket(timestamp), id, cpu, typeId, producerId,
+				category, timestamp, lpar, dpar);
+	}
+
+	/**
+	 * @return the insert query of the {@value CassandraSchema#OPEN} table, to be bound with
+	 *         {@link #bindOpenEvent}
+	 */
+	String getInsertOpenEvent() {
+		return schema.getInsert(CassandraSchema.OPEN, "BUCKET, " + EVENT_COLUMNS);
+	}
+
+	/**
+	 * Bind the copies of an event in the {@value CassandraSchema#OPEN} table, one for each bucket
+	 * whose start is in (timestamp, lpar], to the statement prepared from
+	 * {@link #getInsertOpenEvent()}.
+	 *
+	 * @return the statements, empty if the event is not a state or a link, does not span a
+	 *         bucket start, or if there is no {@value CassandraSchema#OPEN} table
+	 */
+	List<BoundStatement> bindOpenEvent(PreparedStatement ps, int id, int cpu, int typeId,
+			int producerId, int category, long timestamp, long lpar, double dpar) {
+		List<BoundStatement> statements = new ArrayList<>();
+		if (!schema.hasOpenTable()
+				|| (category != EventCategory.STATE && category != EventCategory.LINK)) {
+			return statements;
+		}
+		for (long b = schema.getBucket(timestamp) + 1; b <= schema.getBucket(lpar); b++) {
+			statements.add(schema.bind(ps, b, id, cpu, typeId, producerId, category, timestamp,
+					lpar, dpar));
+		}
+		return statements;
+	}
+
+	/**
+	 * Get the queries reading the events starting in a time interval. The queries are bound to
+	 * statements prepared once per session.
+	 *
+	 * @param session
+	 *            Cassandra session, caching the prepared statements
+	 * @param columns
+	 *            selected columns
+	 * @param t0
+	 *            interval start (included)
+	 * @param t1
+	 *            interval end (included only if last)
+	 * @param last
+	 *            flag stating if this is the last interval
+	 * @param producers
+	 *            producer ids (used only by the TIME_BUCKET_PRODUCER layout)
+	 * @return the queries
+	 */
+	List<Statement> getIntervalQueries(CassandraSession session, String columns, long t0,
+			long t1, boolean last, Collection<Integer> producers) {
+		String endComp = (last) ? "<=" : "<";
+		List<Statement> queries = new ArrayList<>();
+		Layout layout = schema.getLayout();
+		if (layout == Layout.ID) {
+			// all events: start >= t0 and start < t1 (last interval start >= t0 and start <= t1)
+			PreparedStatement ps = session.prepareCached(select(columns)
+					+ "TIMESTAMP >= ? AND TIMESTAMP " + endComp + " ? ALLOW FILTERING;");
+			queries.add(ps.bind(t0, t1));
+			return queries;
+		}
+		PreparedStatement ps = session.prepareCached(select(columns) + partition()
+				+ " AND TIMESTAMP >= ? AND TIMESTAMP " + endComp + " ?;");
+		for (long b = schema.getBucket(t0); b <= schema.getBucket(t1); b++) {
+			if (layout == Layout.TIME_BUCKET) {
+				queries.add(schema.bind(ps, b, t0, t1));
+				continue;
+			}
+			for (Integer p : producers) {
+				queries.add(schema.bind(ps, b, p, t0, t1));
+			}
+		}
+		return queries;
+	}
+
+	/**
+	 * Get the queries reading the states and links possibly intersecting the start of a time
+	 * interval, i.e., starting before t0. The condition on the end timestamp and on the category
+	 * must be checked on the results. The queries are bound to statements prepared once per
+	 * session.
+	 *
+	 * With the bucketed layouts, only the bucket of t0 is read: its
+	 * {@value CassandraSchema#OPEN} partition and its EVENT partition before t0. With the ID
+	 * layout, the time range before t0 that may contain a state or link still open at t0 is read.
+	 *
+	 * @param session
+	 *            Cassandra session, caching the prepared statements
+	 * @param columns
+	 *            selected columns
+	 * @param min
+	 *            trace min timestamp
+	 * @param t0
+	 *            interval start
+	 * @param producers
+	 *            producer ids (used only by the TIME_BUCKET_PRODUCER layout)
+	 * @return the queries
+	 */
+	List<Statement> getFirstIntervalQueries(CassandraSession session, String columns, long min,
+			long t0, Collection<Integer> producers) {
+		List<Statement> queries = new ArrayList<>();
+		Layout layout = schema.getLayout();
+		if (layout == Layout.ID) {
+			// states and links: start < t0 and end >= t0
+			PreparedStatement ps = session.prepareCached(select(columns)
+					+ "(TIMESTAMP) < (?) AND (TIMESTAMP, LPAR) >= (?, ?) ALLOW FILTERING;");
+			long maxSpan = schema.getMaxSpan();
+			long from = (maxSpan < 0) ? min : Math.max(min, t0 - maxSpan);
+			queries.add(ps.bind(t0, from, t0));
+			return queries;
+		}
+		PreparedStatement ps = session.prepareCached(select(columns) + partition()
+				+ " AND TIMESTAMP < ?;");
+		PreparedStatement open = session.prepareCached(select(CassandraSchema.OPEN, columns)
+				+ partition() + ";");
+		long b = schema.getBucket(t0);
+		if (layout == Layout.TIME_BUCKET) {
+			queries.add(schema.bind(open, b));
+			queries.add(schema.bind(ps, b, t0));
+			return queries;
+		}
+		for (Integer p : producers) {
+			queries.add(schema.bind(open, b, p));
+			queries.add(schema.bind(ps, b, p, t0));
+		}
+		return queries;
+	}
+
+	/**
+	 * @return the condition selecting an EVENT partition of a bucketed layout
+	 */
+	private String partition() {
+		if (schema.getLayout() == Layout.TIME_BUCKET) {
+			return "BUCKET = ?";
+		}
+		return "BUCKET = ? AND EVENT_PRODUCER_ID = ?";
+	}
+
+	private String select(String columns) {
+		return select(FramesocTable.EVENT.toString(), columns);
+	}
+
+	private String select(String table, String columns) {
+		return "SELECT " + columns + " FROM " + table + " WHERE "
+				+ (schema.isShared() ? "TRACE_ID = ? AND " : "");
+	}
+
+}
@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraLoaderConfig.Property;
+
+/**
+ * Process-wide cache of the events loaded for a time interval.
+ *
+ * <p>
+ * Entries are kept in LRU order, up to CACHE_SIZE megabytes of event data. If CACHE_SPILL_FILE
+ * is set, entries evicted from memory are copied to a memory-mapped file of CACHE_SPILL_SIZE
+ * megabytes, used as a ring: when the file is full, the oldest spilled entries are overwritten.
+ * A spilled entry is read back (and moved to memory) on the next access.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraIntervalCache {
+
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(CassandraIntervalCache.class);
+
+	public static final int DEFAULT_CACHE_SIZE = 64;
+	public static final int DEFAULT_SPILL_SIZE = 256;
+
+	private static final long MB = 1024 * 1024;
+
+	/**
+	 * Cache key: the interval queries depend only on these values.
+	 */
+	public static class Key {
+		final String keyspace;
+		final long t0;
+		final long t1;
+		final boolean first;
+		final boolean last;
+		final CassandraEventFilter filter;
+
+		public Key(String keyspace, long t0, long t1, boolean first, boolean last,
+				CassandraEventFilter filter) {
+			this.keyspace = keyspace;
+			this.t0 = t0;
+			this.t1 = t1;
+			this.first = first;
+			this.last = last;
+			this.filter = filter;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + keyspace.hashCode();
+			result = prime * result + (int) (t0 ^ (t0 >>> 32));
+			result = prime * result + (int) (t1 ^ (t1 >>> 32));
+			result = prime * result + (first ? 1231 : 1237);
+			result = prime * result + (last ? 1231 : 1237);
+			result = prime * result + filter.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return keyspace.equals(other.keyspace) && t0 == other.t0 && t1 == other.t1
+					&& first == other.first && last == other.last && filter.equals(other.filter);
+		}
+	}
+
+	/**
+	 * Events of an interval, as the chunks pushed to the loader queue.
+	 */
+	public static class Entry {
+		final List<ReducedEventBatch> chunks;
+		final long bytes;
+
+		public Entry(List<ReducedEventBatch> chunks) {
+			this.chunks = Collections.unmodifiableList(chunks);
+			long b = 0;
+			for (ReducedEventBatch chunk : chunks) {
+				b += chunk.getByteSize();
+			}
+			this.bytes = b;
+		}
+
+		public List<ReducedEventBatch> getChunks() {
+			return chunks;
+		}
+	}
+
+	/**
+	 * Position of a spilled entry in the spill file
+	 */
+	private static class SpillSlot {
+		long offset;
+		long bytes;
+		int[] sizes;
+	}
+
+	private static CassandraIntervalCache instance = null;
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes = 0;
+	private final long maxBytes;
+
+	// spill file, used as a ring buffer
+	private MappedByteBuffer spill = null;
+	private final Map<Key, SpillSlot> spilled = new HashMap<>();
+	private long spillPosition = 0;
+
+	/**
+	 * @return the interval cache
+	 */
+	public static synchronized CassandraIntervalCache getInstance() {
+		if (instance == null) {
+			instance = new CassandraIntervalCache();
+		}
+		return instance;
+	}
+
+	private CassandraIntervalCache() {
+		CassandraLoaderConfig config = CassandraLoaderConfig.getInstance();
+		maxBytes = config.getLong(Property.CACHE_SIZE, DEFAULT_CACHE_SIZE) * MB;
+		String path = config.get(Property.CACHE_SPILL_FILE, null);
+		if (path != null && maxBytes > 0) {
+			// a mapped buffer cannot exceed 2 GB
+			long spillBytes = Math.min(Integer.MAX_VALUE,
+					config.getLong(Property.CACHE_SPILL_SIZE, DEFAULT_SPILL_SIZE) * MB);
+			try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+				spill = file.getChannel().map(MapMode.READ_WRITE, 0, spillBytes);
+			} catch (IOException e) {
+				logger.error("Cannot map the cache spill file {}: {}", path, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return true if the cache is enabled (CACHE_SIZE greater than 0)
+	 */
+	public boolean isEnabled() {
+		return maxBytes > 0;
+	}
+
+	/**
+	 * @param size
+	 *            size of an entry, in bytes
+	 * @return true if an entry of the given size can be stored in the cache
+	 */
+	public boolean accepts(long size) {
+		return isEnabled() && size <= maxBytes;
+	}
+
+	/**
+	 * Get the events of an interval.
+	 *
+	 * @param key
+	 *            interval key
+	 * @return the cached entry, or null if the interval is not in the cache
+	 */
+	public synchronized Entry get(Key key) {
+		Entry entry = entries.get(key);
+		if (entry != null || spill == null) {
+			return entry;
+		}
+		SpillSlot slot = spilled.remove(key);
+		if (slot == null) {
+			return null;
+		}
+		ByteBuffer buffer = spill.duplicate();
+		buffer.position((int) slot.offset);
+		List<ReducedEventBatch> chunks = new ArrayList<>(slot.sizes.length);
+		for (int size : slot.sizes) {
+			chunks.add(ReducedEventBatch.readFrom(buffer, size));
+		}
+		entry = new Entry(chunks);
+		put(key, entry);
+		return entry;
+	}
+
+	/**
+	 * Store the events of an interval. The chunks must not be modified afterwards.
+	 *
+	 * @param key
+	 *            interval key
+	 * @param entry
+	 *            interval events
+	 */
+	public synchronized void put(Key key, Entry entry) {
+		if (!accepts(entry.bytes)) {
+			return;
+		}
+		Entry old = entries.put(key, entry);
+		if (old != null) {
+			bytes -= old.bytes;
+		}
+		bytes += entry.bytes;
+		Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Map.Entry<Key, Entry> eldest = it.next();
+			it.remove();
+			bytes -= eldest.getValue().bytes;
+			spill(eldest.getKey(), eldest.getValue());
+		}
+	}
+
+	/**
+	 * Remove all the entries of a trace (e.g., when the trace is created again).
+	 *
+	 * @param keyspace
+	 *            trace database name
+	 */
+	public synchronized void clear(String keyspace) {
+		Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, Entry> e = it.next();
+			if (e.getKey().keyspace.equals(keyspace)) {
+				bytes -= e.getValue().bytes;
+				it.remove();
+			}
+		}
+		Iterator<Key> sit = spilled.keySet().iterator();
+		while (sit.hasNext()) {
+			if (sit.next().keyspace.equals(keyspace)) {
+				sit.remove();
+			}
+		}
+	}
+
+	private void spill(Key key, Entry entry) {
+		if (spill == null || entry.bytes > spill.capacity()) {
+			return;
+		}
+		if (spillPosition + entry.bytes > spill.capacity()) {
+			spillPosition = 0;
+		}
+		SpillSlot slot = new SpillSlot();
+		slot.offset = spillPosition;
+		slot.bytes = entry.bytes;
+		slot.sizes = new int[entry.chunks.size()];
+		// drop the spilled entries overwritten by this one
+		Iterator<SpillSlot> it = spilled.values().iterator();
+		while (it.hasNext()) {
+			SpillSlot s = it.next();
+			if (s.offset < slot.offset + slot.bytes && slot.offset < s.offset + s.bytes) {
+				it.remove();
+			}
+		}
+		ByteBuffer buffer = spill.duplicate();
+		buffer.position((int) slot.offset);
+		for (int i = 0; i < slot.sizes.length; i++) {
+			ReducedEventBatch chunk = entry.chunks.get(i);
+			slot.sizes[i] = chunk.size();
+			chunk.writeTo(buffer);
+		}
+		spillPosition += slot.bytes;
+		spilled.put(key, slot);
+	}
+
+}
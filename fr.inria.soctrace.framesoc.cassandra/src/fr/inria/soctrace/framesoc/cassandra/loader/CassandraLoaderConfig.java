@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Configuration of the Cassandra event loader and of the connections to the cluster.
+ *
+ * The configuration is read from the file whose path is given by the system property
+ * {@value #CONF_FILE_PROPERTY}, with the same format as the importer configuration:
+ *
+ * VARNAME=VALUE
+ *
+ * The possible VARNAMEs correspond to the {@code Property} names. Each variable can also be set
+ * with a system property named {@value #PREFIX}VARNAME (e.g., in the -vmargs of the eclipse.ini
+ * file), which takes precedence over the file.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraLoaderConfig {
+
+	public static final String PREFIX = "fr.inria.soctrace.framesoc.cassandra.";
+	public static final String CONF_FILE_PROPERTY = PREFIX + "conf";
+
+	public static enum Property {
+		/** Number of intervals whose queries are sent in advance */
+		PREFETCH_DEPTH,
+		/** Max number of queries waiting for an answer */
+		MAX_CONCURRENT_QUERIES,
+		/** Number of rows fetched per page */
+		FETCH_SIZE,
+		/** Max number of events pushed at once to the loader queue */
+		CHUNK_SIZE,
+		/** Comma separated contact points of the Cassandra cluster */
+		CONTACT_POINTS,
+		/** Number of connections per host (core and max) */
+		CONNECTIONS_PER_HOST,
+		/** Simultaneous requests on a connection above which a new one is opened */
+		NEW_CONNECTION_THRESHOLD,
+		/** Time in milliseconds an unused session is kept open */
+		SESSION_IDLE_TIMEOUT,
+		/** Native protocol port of the contact points */
+		PORT,
+		/** Local datacenter: if set, only its hosts are used */
+		LOCAL_DC,
+		/** Native protocol compression: NONE, LZ4 or SNAPPY */
+		COMPRESSION,
+		/** Send each query to a replica of its partition: true or false */
+		TOKEN_AWARE,
+		/** Consistency level of the loader reads */
+		READ_CONSISTENCY,
+		/** Size in MB of the loaded interval cache (0 disables it) */
+		CACHE_SIZE,
+		/** Memory-mapped file receiving the intervals evicted from the cache */
+		CACHE_SPILL_FILE,
+		/** Size in MB of the cache spill file */
+		CACHE_SPILL_SIZE,
+		/** Metrics reporter: NONE, JMX or CSV */
+		METRICS_REPORTER,
+		/** Directory of the CSV metrics files */
+		METRICS_CSV_DIR,
+		/** Period in seconds of the CSV metrics reports */
+		METRICS_PERIOD,
+		/** Comma separated names of the producers to load (all if not set) */
+		FILTER_PRODUCERS,
+		/** Comma separated names of the event types to load (all if not set) */
+		FILTER_TYPES,
+		/** Comma separated categories to load: PUNCTUAL_EVENT, STATE, LINK, VARIABLE */
+		FILTER_CATEGORIES;
+	}
+
+	private static CassandraLoaderConfig instance = null;
+
+	private Properties config = new Properties();
+
+	/**
+	 * @return the loader configuration
+	 */
+	public static synchronized CassandraLoaderConfig getInstance() {
+		if (instance == null) {
+			instance = new CassandraLoaderConfig();
+			instance.load(System.getProperty(CONF_FILE_PROPERTY));
+		}
+		return instance;
+	}
+
+	private void load(String path) {
+		if (path == null) {
+			return;
+		}
+		File file = new File(path);
+		if (!file.exists()) {
+			return;
+		}
+		try (InputStream is = new FileInputStream(file)) {
+			config.load(is);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public String get(Property var) {
+		String value = System.getProperty(PREFIX + var.name());
+		if (value != null) {
+			return value;
+		}
+		return config.getProperty(var.name());
+	}
+
+	/**
+	 * Get an integer property.
+	 *
+	 * @param var
+	 *            property
+	 * @param defaultValue
+	 *            value returned if the property is not set
+	 * @return the property value
+	 */
+	public int getInt(Property var, int defaultValue) {
+		String value = get(var);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return Integer.valueOf(value.trim());
+	}
+
+	/**
+	 * Get a long property.
+	 *
+	 * @param var
+	 *            property
+	 * @param defaultValue
+	 *            value returned if the property is not set
+	 * @return the property value
+	 */
+	public long getLong(Property var, long defaultValue) {
+		String value = get(var);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return Long.valueOf(value.trim());
+	}
+
+	/**
+	 * Get a boolean property.
+	 *
+	 * @param var
+	 *            property
+	 * @param defaultValue
+	 *            value returned if the property is not set
+	 * @return the property value
+	 */
+	public boolean getBoolean(Property var, boolean defaultValue) {
+		String value = get(var);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return Boolean.valueOf(value.trim());
+	}
+
+	/**
+	 * Get an enum property.
+	 *
+	 * @param var
+	 *            property
+	 * @param defaultValue
+	 *            value returned if the property is not set
+	 * @return the property value
+	 */
+	public <T extends Enum<T>> T getEnum(Property var, T defaultValue) {
+		String value = get(var);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase());
+	}
+
+	/**
+	 * Get a string property.
+	 *
+	 * @param var
+	 *            property
+	 * @param defaultValue
+	 *            value returned if the property is not set
+	 * @return the property value
+	 */
+	public String get(Property var, String defaultValue) {
+		String value = get(var);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return value.trim();
+	}
+
+}
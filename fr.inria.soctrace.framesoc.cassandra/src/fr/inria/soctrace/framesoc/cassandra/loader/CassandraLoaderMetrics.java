@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.CsvReporter;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Metrics;
+
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraLoaderConfig.Property;
+
+/**
+ * Metrics of the Cassandra event loader, based on the metrics library used by the driver.
+ *
+ * <p>
+ * The loader records, for all the loaded windows:
+ * <ul>
+ * <li>loader.query: latency of each query, from its sending to its first page</li>
+ * <li>loader.network: time spent waiting for the query results and pages</li>
+ * <li>loader.decode: time spent decoding the rows into events</li>
+ * <li>loader.window: duration of each window load</li>
+ * <li>loader.rows and loader.bytes: rows read and event bytes produced (with their rates)</li>
+ * <li>loader.pages: pages fetched</li>
+ * </ul>
+ * The request, retry and timeout metrics of the driver clusters opened by the
+ * {@link CassandraSessionPool} are added under cluster.&lt;contact points&gt;.
+ *
+ * <p>
+ * The metrics are exposed according to METRICS_REPORTER: NONE (default), JMX (domain
+ * {@value #DOMAIN}) or CSV (one file per metric in METRICS_CSV_DIR, written every
+ * METRICS_PERIOD seconds).
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraLoaderMetrics {
+
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(CassandraLoaderMetrics.class);
+
+	public static final String DOMAIN = "fr.inria.soctrace.framesoc.cassandra";
+	public static final long DEFAULT_PERIOD = 10;
+
+	/**
+	 * Metric reporters
+	 */
+	public static enum Reporter {
+		NONE, JMX, CSV;
+	}
+
+	private static CassandraLoaderMetrics instance = null;
+
+	private final MetricRegistry registry = new MetricRegistry();
+	private final Timer query = registry.timer("loader.query");
+	private final Timer network = registry.timer("loader.network");
+	private final Timer decode = registry.timer("loader.decode");
+	private final Timer window = registry.timer("loader.window");
+	private final Meter rows = registry.meter("loader.rows");
+	private final Meter bytes = registry.meter("loader.bytes");
+	private final Counter pages = registry.counter("loader.pages");
+
+	/**
+	 * @return the loader metrics
+	 */
+	public static synchronized CassandraLoaderMetrics getInstance() {
+		if (instance == null) {
+			instance = new CassandraLoaderMetrics();
+		}
+		return instance;
+	}
+
+	private CassandraLoaderMetrics() {
+		CassandraLoaderConfig config = CassandraLoaderConfig.getInstance();
+		Reporter reporter = config.getEnum(Property.METRICS_REPORTER, Reporter.NONE);
+		switch (reporter) {
+		case JMX:
+			JmxReporter.forRegistry(registry).inDomain(DOMAIN)
+					.convertDurationsTo(TimeUnit.MILLISECONDS).build().start();
+			break;
+		case CSV:
+			File dir = new File(config.get(Property.METRICS_CSV_DIR,
+					System.getProperty("java.io.tmpdir")));
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				logger.error("Cannot create the metrics directory {}", dir);
+				break;
+			}
+			long period = config.getLong(Property.METRICS_PERIOD, DEFAULT_PERIOD);
+			CsvReporter.forRegistry(registry).formatFor(Locale.US)
+					.convertDurationsTo(TimeUnit.MILLISECONDS).build(dir)
+					.start(period, TimeUnit.SECONDS);
+			break;
+		default:
+			break;
+		}
+	}
+
+	public MetricRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Record the latency of a query, from its sending to its first page.
+	 */
+	public void query(long nanos) {
+		query.update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record a time spent waiting for a result or a page.
+	 */
+	public void network(long nanos) {
+		network.update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record a time spent decoding rows.
+	 */
+	public void decode(long nanos) {
+		decode.update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record the duration of a window load.
+	 */
+	public void window(long nanos) {
+		window.update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record a page fetch.
+	 */
+	public void page() {
+		pages.inc();
+	}
+
+	/**
+	 * Record decoded rows.
+	 *
+	 * @param count
+	 *            number of rows
+	 */
+	public void rows(int count) {
+		rows.mark(count);
+		bytes.mark((long) count * ReducedEventBatch.EVENT_BYTES);
+	}
+
+	/**
+	 * Add the metrics of a driver cluster.
+	 *
+	 * @param contactPoints
+	 *            contact points of the cluster
+	 * @param cluster
+	 *            driver cluster
+	 */
+	public void register(String contactPoints, Cluster cluster) {
+		Metrics metrics = cluster.getMetrics();
+		if (metrics == null) {
+			return;
+		}
+		unregister(contactPoints);
+		String prefix = getClusterPrefix(contactPoints);
+		for (Map.Entry<String, Metric> m : metrics.getRegistry().getMetrics().entrySet()) {
+			registry.register(prefix + m.getKey(), m.getValue());
+		}
+	}
+
+	/**
+	 * Remove the metrics of a driver cluster.
+	 *
+	 * @param contactPoints
+	 *            contact points of the cluster
+	 */
+	public void unregister(String contactPoints) {
+		final String prefix = getClusterPrefix(contactPoints);
+		registry.removeMatching(new MetricFilter() {
+			@Override
+			public boolean matches(String name, Metric metric) {
+				return name.startsWith(prefix);
+			}
+		});
+	}
+
+	/**
+	 * Log a summary of the loader metrics.
+	 */
+	public void logSummary() {
+		if (!logger.isDebugEnabled()) {
+			return;
+		}
+		logger.debug("windows: {}, mean {} ms", window.getCount(), millis(window));
+		logger.debug("queries: {}, mean latency {} ms, p99 {} ms", query.getCount(),
+				millis(query), query.getSnapshot().get99thPercentile() / 1e6);
+		logger.debug("network wait: {} ms, decode: {} ms (mean between waits)", millis(network),
+				millis(decode));
+		logger.debug("pages: {}, rows: {} ({} rows/s)", pages.getCount(), rows.getCount(),
+				(long) rows.getOneMinuteRate());
+	}
+
+	private double millis(Timer timer) {
+		return timer.getSnapshot().getMean() / 1e6;
+	}
+
+	private String getClusterPrefix(String contactPoints) {
+		// commas are not allowed in JMX names
+		return "cluster." + contactPoints.replace(',', '_') + ".";
+	}
+
+}
@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraLoaderConfig.Property;
+import fr.inria.soctrace.lib.model.EventProducer;
+import fr.inria.soctrace.lib.model.EventType;
+import fr.inria.soctrace.lib.model.utils.ModelConstants.EventCategory;
+import fr.inria.soctrace.lib.storage.DBObject.DBMode;
+
+/**
+ * Process-wide cache of the producers and types of the traces.
+ *
+ * <p>
+ * The metadata of a trace is loaded in background, on a session of its own, the first time it
+ * is requested: the caller gets a future and is never blocked by the session opening or by the
+ * queries. The producer and type queries are sent together. The following requests for the
+ * same trace (e.g., from another loader) share the same future. A failed load is removed from
+ * the cache, so that the next request tries again.
+ *
+ * <p>
+ * Producer type, local id and parent, and type category, are read when the tables have these
+ * columns; keyspaces created by older importers only have ID and NAME, and get the default
+ * values (no parent, STATE category), also used for null values.
+ *
+ * <p>
+ * The metadata of a trace does not change after the import, so entries are only evicted, in
+ * LRU order, when more than MAX_TRACES traces are cached.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraMetadataCache {
+
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(CassandraMetadataCache.class);
+
+	private static final int MAX_TRACES = 32;
+
+	private static final String PRODUCER_TABLE = "EVENT_PRODUCER";
+	private static final String TYPE_TABLE = "EVENT_TYPE";
+	private static final String DEFAULT_PRODUCER_TYPE = "test";
+	private static final String DEFAULT_LOCAL_ID_PREFIX = "T";
+
+	/**
+	 * Producers and types of a trace, not modifiable.
+	 */
+	public static class Metadata {
+		final Map<Integer, EventProducer> producers;
+		final Map<Integer, EventType> types;
+
+		Metadata(Map<Integer, EventProducer> producers, Map<Integer, EventType> types) {
+			this.producers = Collections.unmodifiableMap(producers);
+			this.types = Collections.unmodifiableMap(types);
+		}
+
+		public Map<Integer, EventProducer> getProducers() {
+			return producers;
+		}
+
+		public Map<Integer, EventType> getTypes() {
+			return types;
+		}
+	}
+
+	/**
+	 * Map of the cached traces, in access order
+	 */
+	private static class LruMap extends LinkedHashMap<String, ListenableFuture<Metadata>> {
+		private static final long serialVersionUID = 1L;
+
+		LruMap() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ListenableFuture<Metadata>> eldest) {
+			return size() > MAX_TRACES;
+		}
+	}
+
+	private static CassandraMetadataCache instance = null;
+
+	private final ListeningExecutorService executor = MoreExecutors
+			.listeningDecorator(Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+					.setNameFormat("cassandra-metadata-%d").setDaemon(true).build()));
+
+	private final Map<String, ListenableFuture<Metadata>> entries = new LruMap();
+
+	/**
+	 * @return the metadata cache
+	 */
+	public static synchronized CassandraMetadataCache getInstance() {
+		if (instance == null) {
+			instance = new CassandraMetadataCache();
+		}
+		return instance;
+	}
+
+	private CassandraMetadataCache() {
+	}
+
+	/**
+	 * Get the metadata of a trace, starting its loading if it is not cached.
+	 *
+	 * @param dbName
+	 *            trace database name
+	 * @return the future metadata
+	 */
+	public synchronized ListenableFuture<Metadata> get(final String dbName) {
+		ListenableFuture<Metadata> future = entries.get(dbName);
+		if (future != null) {
+			return future;
+		}
+		final ListenableFuture<Metadata> load = executor.submit(new Callable<Metadata>() {
+			@Override
+			public Metadata call() throws Exception {
+				return load(dbName);
+			}
+		});
+		Futures.addCallback(load, new FutureCallback<Metadata>() {
+			@Override
+			public void onSuccess(Metadata result) {
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				logger.error("Cannot load the metadata of {}: {}", dbName, t.getMessage());
+				invalidate(dbName, load);
+			}
+		});
+		entries.put(dbName, load);
+		return load;
+	}
+
+	/**
+	 * Remove the metadata of a trace (e.g., when the trace is created again or dropped).
+	 *
+	 * @param dbName
+	 *            trace database name
+	 */
+	public synchronized void invalidate(String dbName) {
+		entries.remove(dbName);
+	}
+
+	private synchronized void invalidate(String dbName, ListenableFuture<Metadata> future) {
+		if (entries.get(dbName) == future) {
+			entries.remove(dbName);
+		}
+	}
+
+	private Metadata load(String dbName) {
+		CassandraSession session = new CassandraSession(dbName, DBMode.DB_OPEN);
+		try {
+			CassandraSchema schema = session.getSchema();
+			boolean producerColumns = session.hasColumn(PRODUCER_TABLE, "PARENT_ID");
+			boolean typeColumns = session.hasColumn(TYPE_TABLE, "CATEGORY");
+			// send both queries before reading any result
+			ResultSetFuture producerRows = session.executeAsync(select(session, PRODUCER_TABLE,
+					producerColumns ? "ID, NAME, TYPE, LOCAL_ID, PARENT_ID" : "ID, NAME"));
+			ResultSetFuture typeRows = session.executeAsync(select(session, TYPE_TABLE,
+					typeColumns ? "ID, NAME, CATEGORY" : "ID, NAME"));
+			Map<Integer, EventProducer> producers = new HashMap<>();
+			for (Row r : producerRows.getUninterruptibly()) {
+				EventProducer ep = new EventProducer(r.getInt(0));
+				ep.setName(r.getString(1));
+				ep.setType((producerColumns && !r.isNull(2)) ? r.getString(2)
+						: DEFAULT_PRODUCER_TYPE);
+				ep.setLocalId((producerColumns && !r.isNull(3)) ? r.getString(3)
+						: DEFAULT_LOCAL_ID_PREFIX + ep.getId());
+				ep.setParentId((producerColumns && !r.isNull(4)) ? r.getInt(4)
+						: EventProducer.NO_PARENT_ID);
+				producers.put(ep.getId(), ep);
+			}
+			Map<Integer, EventType> types = new HashMap<>();
+			for (Row r : typeRows.getUninterruptibly()) {
+				int category = (typeColumns && !r.isNull(2)) ? r.getInt(2) : EventCategory.STATE;
+				EventType et = new EventType(r.getInt(0), category);
+				et.setName(r.getString(1));
+				types.put(et.getId(), et);
+			}
+			logger.debug("Metadata of {} ({} layout): {} producers, {} types", dbName,
+					schema.getLayout(), producers.size(), types.size());
+			return new Metadata(producers, types);
+		} finally {
+			session.close();
+		}
+	}
+
+	private Statement select(CassandraSession session, String table, String columns) {
+		CassandraSchema schema = session.getSchema();
+		ConsistencyLevel consistency = CassandraLoaderConfig.getInstance().getEnum(
+				Property.READ_CONSISTENCY, ConsistencyLevel.ONE);
+		return schema.bind(session.prepareCached(schema.getSelect(table, columns, null)))
+				.setConsistencyLevel(consistency);
+	}
+
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import fr.inria.soctrace.lib.model.utils.SoCTraceException;
+
+/**
+ * Overview of a trace, read from the aggregate tables filled at import time instead of from the
+ * events.
+ *
+ * <p>
+ * The time interval is split in a requested number of bins, and each aggregate bucket is
+ * accounted in the bin containing its start. The precision is therefore limited to the
+ * aggregate bucket duration: asking for bins shorter than it leaves some bins empty.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraOverview {
+
+	private final CassandraSession session;
+	private final CassandraSchema schema;
+
+	public CassandraOverview(CassandraSession session) {
+		this.session = session;
+		this.schema = session.getSchema();
+	}
+
+	/**
+	 * @return true if the keyspace has aggregate tables
+	 */
+	public boolean isAvailable() {
+		return schema.hasAggregates();
+	}
+
+	/**
+	 * Get the number of events of each type in each bin of a time interval.
+	 *
+	 * @param t0
+	 *            interval start
+	 * @param t1
+	 *            interval end
+	 * @param bins
+	 *            number of bins
+	 * @return a map between type id and the event counts of the bins
+	 * @throws SoCTraceException
+	 */
+	public Map<Integer, long[]> getTypeCounts(long t0, long t1, int bins)
+			throws SoCTraceException {
+		return read(CassandraSchema.TYPE_COUNT, t0, t1, bins);
+	}
+
+	/**
+	 * Get the time spent in states by each producer in each bin of a time interval.
+	 *
+	 * @param t0
+	 *            interval start
+	 * @param t1
+	 *            interval end
+	 * @param bins
+	 *            number of bins
+	 * @return a map between producer id and the busy time of the bins
+	 * @throws SoCTraceException
+	 */
+	public Map<Integer, long[]> getProducerBusyTime(long t0, long t1, int bins)
+			throws SoCTraceException {
+		return read(CassandraSchema.PRODUCER_BUSY, t0, t1, bins);
+	}
+
+	private Map<Integer, long[]> read(String table, long t0, long t1, int bins)
+			throws SoCTraceException {
+		Map<Integer, long[]> values = new HashMap<>();
+		if (!isAvailable() || bins <= 0 || t1 < t0) {
+			return values;
+		}
+		// send all the slice queries at once
+		List<ResultSetFuture> futures = new ArrayList<>();
+		for (Statement query : schema.getAggregateQueries(session, table, t0, t1)) {
+			futures.add(session.executeAsync(query));
+		}
+		double binDuration = Math.max(1, t1 - t0) / (double) bins;
+		long duration = schema.getAggregateDuration();
+		for (ResultSetFuture future : futures) {
+			ResultSet rs;
+			try {
+				rs = Uninterruptibles.getUninterruptibly(future);
+			} catch (ExecutionException e) {
+				throw new SoCTraceException(e.getCause());
+			}
+			for (Row r : rs) {
+				long start = r.getLong(0) * duration;
+				int bin = (int) Math.max(0, Math.min(bins - 1, (start - t0) / binDuration));
+				long[] v = values.get(r.getInt(1));
+				if (v == null) {
+					v = new long[bins];
+					values.put(r.getInt(1), v);
+				}
+				v[bin] += r.getLong(2);
+			}
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,512 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Description of the tables of a trace keyspace.
+ *
+ * <pre>
+ * Layouts of the EVENT table:
+ * - ID: one partition per event, PRIMARY KEY ((ID), TIMESTAMP, LPAR), with secondary indexes on
+ *   TIMESTAMP and LPAR. Time range queries need ALLOW FILTERING over the whole cluster.
+ * - TIME_BUCKET: one partition per time bucket, PRIMARY KEY ((BUCKET), TIMESTAMP, ID).
+ * - TIME_BUCKET_PRODUCER: one partition per time bucket and producer,
+ *   PRIMARY KEY ((BUCKET, EVENT_PRODUCER_ID), TIMESTAMP, ID).
+ * </pre>
+ *
+ * With the bucketed layouts, a time range query becomes a set of single-partition slice queries,
+ * one for each bucket (and producer) intersecting the range. All the range queries are prepared
+ * once per session and bound for each interval.
+ *
+ * Optionally, the keyspace also contains aggregate tables, filled at import time, with the number
+ * of events per (aggregate bucket, type) and the time spent in states per (aggregate bucket,
+ * producer). Their partition is a slice of {@value #AGGREGATE_SLICE_BUCKETS} aggregate buckets.
+ *
+ * The states and links intersecting the start of a time window are found without scanning the
+ * whole trace before it, using data written at import time: for the bucketed layouts, the
+ * {@value #OPEN} table has the same columns and partitions as EVENT and contains, in each
+ * bucket, a copy of the states and links started before the bucket and still open at its
+ * start. A state spanning n bucket starts is thus written n more times, but the first interval
+ * reads a single bucket, wherever t0 is and however long the states are. For the ID layout, the
+ * longest state or link duration bounds the scan.
+ *
+ * The layout, the bucket durations and the longest duration are stored in the TRACE_INFO table
+ * of the keyspace. A keyspace without such a table uses the ID layout.
+ *
+ * A keyspace can also be shared by many traces, so that importing a trace does not change the
+ * cluster schema. In a shared keyspace, every table has a TRACE_ID column: it is the partition
+ * key of the metadata tables (EVENT_PRODUCER, EVENT_TYPE, EVENT_PARAM_TYPE, TRACE_INFO) and the
+ * first component of the partition key of the other ones. All the traces of a shared keyspace
+ * use the same bucketed layout: the ID layout cannot be shared. Queries and inserts must be
+ * built with {@link #getSelect}, {@link #getInsert} and {@link #bind}, which add the trace
+ * condition when needed.
+ *
+ * The DDL statements, the event queries of each layout and the aggregate queries are built by
+ * {@link CassandraSchemaDdl}, {@link CassandraEventQueries} and {@link CassandraAggregateQueries}.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraSchema {
+
+	/**
+	 * EVENT table layout
+	 */
+	public static enum Layout {
+		ID,
+		TIME_BUCKET,
+		TIME_BUCKET_PRODUCER;
+	}
+
+	static final String TRACE_INFO = "TRACE_INFO";
+	private static final String INFO_LAYOUT = "LAYOUT";
+	private static final String INFO_BUCKET_DURATION = "BUCKET_DURATION";
+	private static final String INFO_AGGREGATE_DURATION = "AGGREGATE_DURATION";
+	private static final String INFO_MAX_SPAN = "MAX_SPAN";
+
+	/**
+	 * Aggregate tables
+	 */
+	public static final String TYPE_COUNT = "EVENT_TYPE_COUNT";
+	public static final String PRODUCER_BUSY = "EVENT_PRODUCER_BUSY";
+
+	/**
+	 * States and links open at the start of each bucket
+	 */
+	public static final String OPEN = "EVENT_OPEN";
+
+	/**
+	 * Number of aggregate buckets per partition of the aggregate tables
+	 */
+	public static final long AGGREGATE_SLICE_BUCKETS = 1000;
+
+	private final Layout layout;
+	private final long bucketDuration;
+	private String replication = simpleReplication(1);
+	private long aggregateDuration = 0;
+	private final boolean openTable;
+	private long maxSpan = -1;
+	private CassandraTableOptions tableOptions = new CassandraTableOptions();
+	private String traceId = null;
+	private final CassandraEventQueries eventQueries = new CassandraEventQueries(this);
+	private final CassandraAggregateQueries aggregateQueries = new CassandraAggregateQueries(this);
+
+	/**
+	 * Legacy schema, with one partition per event.
+	 */
+	public CassandraSchema() {
+		this(Layout.ID, 0);
+	}
+
+	public CassandraSchema(Layout layout, long bucketDuration) {
+		this.layout = layout;
+		this.bucketDuration = (layout == Layout.ID) ? 0 : Math.max(1, bucketDuration);
+		this.openTable = (layout != Layout.ID);
+	}
+
+	public Layout getLayout() {
+		return layout;
+	}
+
+	public long getBucketDuration() {
+		return bucketDuration;
+	}
+
+	/**
+	 * @return the duration of the buckets of the aggregate tables, 0 if there are no aggregate
+	 *         tables
+	 */
+	public long getAggregateDuration() {
+		return aggregateDuration;
+	}
+
+	/**
+	 * Set the duration of the buckets of the aggregate tables, used only when creating the
+	 * keyspace.
+	 *
+	 * @param aggregateDuration
+	 *            bucket duration, 0 not to create the aggregate tables
+	 */
+	public void setAggregateDuration(long aggregateDuration) {
+		this.aggregateDuration = Math.max(0, aggregateDuration);
+	}
+
+	/**
+	 * Set the storage options of the EVENT table, used only when creating the keyspace.
+	 *
+	 * @param tableOptions
+	 *            table options
+	 */
+	public void setTableOptions(CassandraTableOptions tableOptions) {
+		this.tableOptions = tableOptions;
+	}
+
+	CassandraTableOptions getTableOptions() {
+		return tableOptions;
+	}
+
+	/**
+	 * Set the trace of a shared keyspace described by this schema.
+	 *
+	 * @param traceId
+	 *            trace id in the keyspace, null if the keyspace is not shared
+	 */
+	public void setTraceId(String traceId) {
+		if (traceId != null && layout == Layout.ID) {
+			throw new IllegalArgumentException("The ID layout cannot be used in a shared keyspace");
+		}
+		this.traceId = traceId;
+	}
+
+	/**
+	 * @return the trace id in a shared keyspace, null if the keyspace is not shared
+	 */
+	public String getTraceId() {
+		return traceId;
+	}
+
+	public boolean isShared() {
+		return traceId != null;
+	}
+
+	public boolean hasAggregates() {
+		return aggregateDuration > 0;
+	}
+
+	/**
+	 * @return true if the keyspace has the {@value #OPEN} table
+	 */
+	public boolean hasOpenTable() {
+		return openTable;
+	}
+
+	/**
+	 * @return the longest duration of a state or link, -1 if unknown
+	 */
+	public long getMaxSpan() {
+		return maxSpan;
+	}
+
+	/**
+	 * @return the replication map of the keyspace, as a CQL map literal
+	 */
+	public String getReplication() {
+		return replication;
+	}
+
+	/**
+	 * Set the replication of the keyspace, used only when creating it.
+	 *
+	 * @param replication
+	 *            CQL map literal, see {@link #simpleReplication(int)} and
+	 *            {@link #networkTopologyReplication(Map)}
+	 */
+	public void setReplication(String replication) {
+		this.replication = replication;
+	}
+
+	/**
+	 * @return the replication map of a SimpleStrategy keyspace
+	 */
+	public static String simpleReplication(int factor) {
+		return "{ 'class' : 'SimpleStrategy', 'replication_factor' : " + factor + " }";
+	}
+
+	/**
+	 * @param factors
+	 *            replication factor of each datacenter
+	 * @return the replication map of a NetworkTopologyStrategy keyspace
+	 */
+	public static String networkTopologyReplication(Map<String, Integer> factors) {
+		StringBuilder sb = new StringBuilder("{ 'class' : 'NetworkTopologyStrategy'");
+		for (Map.Entry<String, Integer> dc : factors.entrySet()) {
+			sb.append(", '" + dc.getKey() + "' : " + dc.getValue());
+		}
+		sb.append(" }");
+		return sb.toString();
+	}
+
+	public boolean isBucketed() {
+		return layout != Layout.ID;
+	}
+
+	/**
+	 * Get the time bucket containing a timestamp.
+	 *
+	 * @param timestamp
+	 *            timestamp
+	 * @return the bucket number
+	 */
+	public long getBucket(long timestamp) {
+		return floorDiv(timestamp, bucketDuration);
+	}
+
+	/**
+	 * Get the aggregate bucket containing a timestamp.
+	 *
+	 * @param timestamp
+	 *            timestamp
+	 * @return the aggregate bucket number
+	 */
+	public long getAggregateBucket(long timestamp) {
+		return floorDiv(timestamp, aggregateDuration);
+	}
+
+	/**
+	 * Get the partition of the aggregate tables containing an aggregate bucket.
+	 *
+	 * @param bucket
+	 *            aggregate bucket number
+	 * @return the partition (slice) number
+	 */
+	public long getAggregateSlice(long bucket) {
+		return floorDiv(bucket, AGGREGATE_SLICE_BUCKETS);
+	}
+
+	/**
+	 * Get the DDL statements creating the trace tables in the current keyspace.
+	 *
+	 * @see CassandraSchemaDdl#getCreateStatements()
+	 */
+	public List<String> getCreateStatements() {
+		return new CassandraSchemaDdl(this).getCreateStatements();
+	}
+
+	/**
+	 * @see CassandraSchemaDdl#getEventPartitionKeySize()
+	 */
+	public int getEventPartitionKeySize() {
+		return new CassandraSchemaDdl(this).getEventPartitionKeySize();
+	}
+
+	/**
+	 * Get an insert query. In a shared keyspace, the TRACE_ID column is added first.
+	 *
+	 * @param table
+	 *            table name
+	 * @param columns
+	 *            comma separated columns
+	 * @return the query, to be bound with {@link #bind}
+	 */
+	public String getInsert(String table, String columns) {
+		StringBuilder values = new StringBuilder("?");
+		for (int i = 0; i < columns.length(); i++) {
+			if (columns.charAt(i) == ',') {
+				values.append(", ?");
+			}
+		}
+		if (isShared()) {
+			return "INSERT INTO " + table + " (TRACE_ID, " + columns + ") VALUES (?, " + values
+					+ ")";
+		}
+		return "INSERT INTO " + table + " (" + columns + ") VALUES (" + values + ")";
+	}
+
+	/**
+	 * Get a select query. In a shared keyspace, the condition on TRACE_ID is added first.
+	 *
+	 * @param table
+	 *            table name
+	 * @param columns
+	 *            selected columns
+	 * @param condition
+	 *            WHERE condition, or null
+	 * @return the query, to be bound with {@link #bind}
+	 */
+	public String getSelect(String table, String columns, String condition) {
+		String select = "SELECT " + columns + " FROM " + table;
+		if (isShared()) {
+			select += " WHERE TRACE_ID = ?";
+			return (condition == null) ? select : select + " AND " + condition;
+		}
+		return (condition == null) ? select : select + " WHERE " + condition;
+	}
+
+	/**
+	 * Bind a statement prepared from {@link #getSelect} or {@link #getInsert}. In a shared
+	 * keyspace, the trace id is bound first.
+	 *
+	 * @param ps
+	 *            prepared statement
+	 * @param values
+	 *            values of the other bind markers
+	 * @return the bound statement
+	 */
+	public BoundStatement bind(PreparedStatement ps, Object... values) {
+		if (!isShared()) {
+			return ps.bind(values);
+		}
+		Object[] all = new Object[values.length + 1];
+		all[0] = traceId;
+		System.arraycopy(values, 0, all, 1, values.length);
+		return ps.bind(all);
+	}
+
+	/**
+	 * Store the schema description in the current keyspace.
+	 *
+	 * @param session
+	 *            Cassandra session
+	 */
+	public void save(CassandraSession session) {
+		PreparedStatement ps = session.prepare(getInsert(TRACE_INFO, "NAME, VALUE"));
+		session.execute(bind(ps, INFO_LAYOUT, layout.name()));
+		session.execute(bind(ps, INFO_BUCKET_DURATION, String.valueOf(bucketDuration)));
+		session.execute(bind(ps, INFO_AGGREGATE_DURATION, String.valueOf(aggregateDuration)));
+	}
+
+	/**
+	 * Read the schema description of the session keyspace (and trace, if the keyspace is
+	 * shared).
+	 *
+	 * @param session
+	 *            Cassandra session
+	 * @return the keyspace schema
+	 */
+	public static CassandraSchema load(CassandraSession session) {
+		if (!session.hasTable(TRACE_INFO)) {
+			return new CassandraSchema();
+		}
+		Layout layout = Layout.ID;
+		long bucketDuration = 0;
+		long aggregateDuration = 0;
+		long maxSpan = -1;
+		String traceId = session.getTraceId();
+		String query = "SELECT NAME, VALUE FROM " + TRACE_INFO;
+		ResultSet rs = (traceId == null) ? session.execute(query + ";") : session.execute(session
+				.prepare(query + " WHERE TRACE_ID = ?").bind(traceId));
+		for (Row r : rs) {
+			if (r.getString(0).equals(INFO_LAYOUT)) {
+				layout = Layout.valueOf(r.getString(1));
+			} else if (r.getString(0).equals(INFO_BUCKET_DURATION)) {
+				bucketDuration = Long.valueOf(r.getString(1));
+			} else if (r.getString(0).equals(INFO_AGGREGATE_DURATION)) {
+				aggregateDuration = Long.valueOf(r.getString(1));
+			} else if (r.getString(0).equals(INFO_MAX_SPAN)) {
+				maxSpan = Long.valueOf(r.getString(1));
+			}
+		}
+		CassandraSchema schema = new CassandraSchema(layout, bucketDuration);
+		schema.setAggregateDuration(aggregateDuration);
+		schema.maxSpan = maxSpan;
+		schema.setTraceId(traceId);
+		return schema;
+	}
+
+	/**
+	 * Bind the longest duration of a state or link, to be stored at the end of the import.
+	 *
+	 * @param session
+	 *            Cassandra session
+	 * @param maxSpan
+	 *            longest duration
+	 * @return the TRACE_INFO insert
+	 */
+	public BoundStatement bindMaxSpan(CassandraSession session, long maxSpan) {
+		return bind(session.prepare(getInsert(TRACE_INFO, "NAME, VALUE")), INFO_MAX_SPAN,
+				String.valueOf(maxSpan));
+	}
+
+	/**
+	 * @see CassandraEventQueries#getInsertEvent()
+	 */
+	public String getInsertEvent() {
+		return eventQueries.getInsertEvent();
+	}
+
+	/**
+	 * @see CassandraEventQueries#bindEvent
+	 */
+	public BoundStatement bindEvent(PreparedStatement ps, int id, int cpu, int typeId,
+			int producerId, int category, long timestamp, long lpar, double dpar) {
+		return eventQueries.bindEvent(ps, id, cpu, typeId, producerId, category, timestamp, lpar,
+				dpar);
+	}
+
+	/**
+	 * @see CassandraEventQueries#getInsertOpenEvent()
+	 */
+	public String getInsertOpenEvent() {
+		return eventQueries.getInsertOpenEvent();
+	}
+
+	/**
+	 * @see CassandraEventQueries#bindOpenEvent
+	 */
+	public List<BoundStatement> bindOpenEvent(PreparedStatement ps, int id, int cpu, int typeId,
+			int producerId, int category, long timestamp, long lpar, double dpar) {
+		return eventQueries.bindOpenEvent(ps, id, cpu, typeId, producerId, category, timestamp,
+				lpar, dpar);
+	}
+
+	/**
+	 * Get the queries reading the events starting in a time interval.
+	 *
+	 * @see CassandraEventQueries#getIntervalQueries
+	 */
+	public List<Statement> getIntervalQueries(CassandraSession session, String columns, long t0,
+			long t1, boolean last, Collection<Integer> producers) {
+		return eventQueries.getIntervalQueries(session, columns, t0, t1, last, producers);
+	}
+
+	/**
+	 * Get the queries reading the states and links possibly intersecting the start of a time
+	 * interval.
+	 *
+	 * @see CassandraEventQueries#getFirstIntervalQueries
+	 */
+	public List<Statement> getFirstIntervalQueries(CassandraSession session, String columns,
+			long min, long t0, Collection<Integer> producers) {
+		return eventQueries.getFirstIntervalQueries(session, columns, min, t0, producers);
+	}
+
+	/**
+	 * @see CassandraAggregateQueries#getInsertTypeCount()
+	 */
+	public String getInsertTypeCount() {
+		return aggregateQueries.getInsertTypeCount();
+	}
+
+	/**
+	 * @see CassandraAggregateQueries#getInsertProducerBusy()
+	 */
+	public String getInsertProducerBusy() {
+		return aggregateQueries.getInsertProducerBusy();
+	}
+
+	/**
+	 * Get the queries reading the rows of an aggregate table for a time interval.
+	 *
+	 * @see CassandraAggregateQueries#getAggregateQueries
+	 */
+	public List<Statement> getAggregateQueries(CassandraSession session, String table, long t0,
+			long t1) {
+		return aggregateQueries.getAggregateQueries(session, table, t0, t1);
+	}
+
+	private static long floorDiv(long a, long b) {
+		long q = a / b;
+		if (a < 0 && q * b != a) {
+			q--;
+		}
+		return q;
+	}
+
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraSchema.Layout;
+
+/**
+ * DDL statements creating the tables of a {@link CassandraSchema}.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+class CassandraSchemaDdl {
+
+	private static final String EVENT_COLUMNS = "ID int, CPU int, EVENT_TYPE_ID int,"
+			+ " EVENT_PRODUCER_ID int, CATEGORY int, TIMESTAMP bigint, LPAR bigint, DPAR double";
+
+	private final CassandraSchema schema;
+
+	CassandraSchemaDdl(CassandraSchema schema) {
+		this.schema = schema;
+	}
+
+	/**
+	 * Get the DDL statements creating the trace tables in the current keyspace. In a shared
+	 * keyspace, the optional tables are always created, since the next traces may need them.
+	 *
+	 * @return the DDL statements
+	 */
+	List<String> getCreateStatements() {
+		List<String> ddl = new ArrayList<>();
+		ddl.add(createEventTable("EVENT") + schema.getTableOptions().getWithClause() + ";");
+		ddl.add(createMetadataTable("EVENT_PRODUCER",
+				"ID int, NAME text, TYPE text, LOCAL_ID text, PARENT_ID int", "ID"));
+		ddl.add(createMetadataTable("EVENT_TYPE", "ID int, NAME text, CATEGORY int", "ID"));
+		ddl.add(createMetadataTable("EVENT_PARAM_TYPE",
+				"ID int, EVENT_TYPE_ID int, NAME text, TYPE text", "ID"));
+		ddl.add(createTable("EVENT_PARAM",
+				"EVENT_ID int, ID int, EVENT_PARAM_TYPE_ID int, VALUE text", "EVENT_ID", "ID")
+				+ ";");
+		if (schema.getLayout() == Layout.ID) {
+			ddl.add("CREATE INDEX IF NOT EXISTS tidx ON EVENT (TIMESTAMP);");
+			ddl.add("CREATE INDEX IF NOT EXISTS etidx ON EVENT (LPAR);");
+		}
+		if (schema.hasAggregates() || schema.isShared()) {
+			ddl.add(createTable(CassandraSchema.TYPE_COUNT,
+					"SLICE bigint, BUCKET bigint, EVENT_TYPE_ID int, COUNT bigint", "SLICE",
+					"BUCKET, EVENT_TYPE_ID") + ";");
+			ddl.add(createTable(CassandraSchema.PRODUCER_BUSY,
+					"SLICE bigint, BUCKET bigint, EVENT_PRODUCER_ID int, BUSY bigint", "SLICE",
+					"BUCKET, EVENT_PRODUCER_ID") + ";");
+		}
+		if (schema.hasOpenTable()) {
+			ddl.add(createEventTable(CassandraSchema.OPEN) + ";");
+		}
+		ddl.add(createMetadataTable(CassandraSchema.TRACE_INFO, "NAME ascii, VALUE ascii", "NAME"));
+		return ddl;
+	}
+
+	/**
+	 * Get the number of components of the EVENT partition key, used to check that a shared
+	 * keyspace has the layout of this schema.
+	 */
+	int getEventPartitionKeySize() {
+		int size = (schema.getLayout() == Layout.TIME_BUCKET_PRODUCER) ? 2 : 1;
+		return schema.isShared() ? size + 1 : size;
+	}
+
+	/**
+	 * Create a table with the columns and keys of the EVENT table of the layout.
+	 */
+	private String createEventTable(String table) {
+		switch (schema.getLayout()) {
+		case TIME_BUCKET:
+			return createTable(table, "BUCKET bigint, " + EVENT_COLUMNS, "BUCKET",
+					"TIMESTAMP, ID");
+		case TIME_BUCKET_PRODUCER:
+			return createTable(table, "BUCKET bigint, " + EVENT_COLUMNS,
+					"BUCKET, EVENT_PRODUCER_ID", "TIMESTAMP, ID");
+		default:
+			return createTable(table, EVENT_COLUMNS, "ID", "TIMESTAMP, LPAR");
+		}
+	}
+
+	/**
+	 * Create a table whose partition key starts with TRACE_ID in a shared keyspace.
+	 */
+	private String createTable(String table, String columns, String partitionKey,
+			String clustering) {
+		boolean shared = schema.isShared();
+		String key = shared ? "TRACE_ID, " + partitionKey : partitionKey;
+		return "CREATE TABLE " + (shared ? "IF NOT EXISTS " : "") + table + " ("
+				+ (shared ? "TRACE_ID text, " : "") + columns + ", PRIMARY KEY ((" + key + ")"
+				+ (clustering == null ? "" : ", " + clustering) + "))";
+	}
+
+	/**
+	 * Create a metadata table, with one partition per trace in a shared keyspace.
+	 */
+	private String createMetadataTable(String table, String columns, String key) {
+		if (schema.isShared()) {
+			return "CREATE TABLE IF NOT EXISTS " + table + " (TRACE_ID text, " + columns
+					+ ", PRIMARY KEY ((TRACE_ID), " + key + "));";
+		}
+		return "CREATE TABLE " + table + " (" + columns + ", PRIMARY KEY (" + key + "));";
+	}
+
+}
@@ -10,40 +10,109 @@
  ******************************************************************************/
 package fr.inria.soctrace.framesoc.cassandra.loader;
 
-import com.datastax.driver.core.BoundStatement;
-import com.datastax.driver.core.Cluster;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.KeyspaceMetadata;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TableMetadata;
 
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraLoaderConfig.Property;
 import fr.inria.soctrace.lib.storage.DBObject.DBMode;
+import fr.inria.soctrace.lib.storage.utils.SQLConstants.FramesocTable;
 
 /**
  * Cassandra session manager.
  * 
+ * The driver session is shared with the other CassandraSession objects opened on the same
+ * keyspace, through the {@link CassandraSessionPool}: closing a CassandraSession only releases
+ * it.
+ * 
+ * A trace database name is either a keyspace name, or keyspace.trace for a trace of a shared
+ * keyspace (see {@link CassandraSchema}). Keyspace names cannot contain dots. Creating a trace
+ * in an existing shared keyspace does not change the cluster schema.
+ * 
  * @author "Generoso Pagano <generoso.pagano@inria.fr>"
  */
 public class CassandraSession {
 
-	private static final String IP = "127.0.0.1";
-
-	private Cluster cluster;
+	private final String contactPoints;
 	private Session session;
+	private String keyspace;
+	private String traceId;
+	private CassandraSchema schema;
 
-	public CassandraSession(String keyspace, DBMode dbMode) {
-		cluster = Cluster.builder().addContactPoint(IP).build();
-		if (dbMode.equals(DBMode.DB_CREATE)) {
-			session = cluster.connect();
-			execute(keyspace(keyspace));
-			execute("USE " + keyspace + ";");
-			execute(initEvent());
-			execute(initProducer());
-			execute(initType());
-			execute(initTimestampIndex());
-			execute(initEndTimestampIndex());
-		} else {
-			session = cluster.connect(keyspace);
+	/**
+	 * Open a session on a trace. When creating the trace, the legacy schema is used.
+	 * 
+	 * @param dbName
+	 *            trace database name
+	 * @param dbMode
+	 *            open or create
+	 */
+	public CassandraSession(String dbName, DBMode dbMode) {
+		this(dbName, dbMode, new CassandraSchema());
+	}
+
+	/**
+	 * Open a session on a trace.
+	 * 
+	 * @param dbName
+	 *            trace database name: keyspace, or keyspace.trace in a shared keyspace
+	 * @param dbMode
+	 *            open or create
+	 * @param schema
+	 *            schema of the trace to create (ignored when opening: the schema is read from
+	 *            the keyspace)
+	 */
+	public CassandraSession(String dbName, DBMode dbMode, CassandraSchema schema) {
+		int dot = dbName.indexOf('.');
+		this.keyspace = (dot < 0) ? dbName : dbName.substring(0, dot);
+		this.traceId = (dot < 0) ? null : dbName.substring(dot + 1);
+		this.contactPoints = CassandraLoaderConfig.getInstance().get(Property.CONTACT_POINTS,
+				CassandraSessionPool.DEFAULT_CONTACT_POINTS);
+		CassandraSessionPool pool = CassandraSessionPool.getInstance();
+		boolean create = dbMode.equals(DBMode.DB_CREATE);
+		if (create) {
+			// a previous trace with the same name may still be cached
+			CassandraIntervalCache.getInstance().clear(dbName);
+			CassandraMetadataCache.getInstance().invalidate(dbName);
+			schema.setTraceId(traceId);
+			Session admin = pool.acquire(contactPoints, null);
+			try {
+				if (traceId == null
+						|| admin.getCluster().getMetadata().getKeyspace(keyspace) == null) {
+					admin.execute(keyspace(keyspace, schema.getReplication(), traceId != null));
+				}
+			} finally {
+				pool.release(contactPoints, null);
+			}
+		}
+		session = pool.acquire(contactPoints, keyspace);
+		try {
+			if (create) {
+				TableMetadata event = getTable(FramesocTable.EVENT.toString());
+				if (traceId == null || event == null) {
+					for (String ddl : schema.getCreateStatements()) {
+						execute(ddl);
+					}
+				} else if (event.getPartitionKey().size() != schema.getEventPartitionKeySize()) {
+					throw new IllegalArgumentException("The layout " + schema.getLayout()
+							+ " differs from the one of the shared keyspace " + keyspace);
+				}
+				schema.save(this);
+				this.schema = schema;
+			} else {
+				this.schema = CassandraSchema.load(this);
+			}
+		} catch (RuntimeException e) {
+			close();
+			throw e;
 		}
 	}
 
@@ -51,13 +120,22 @@ public class CassandraSession {
 		return session.execute(query);
 	}
 
+	public ResultSet execute(Statement statement) {
+		return session.execute(statement);
+	}
+
 	public ResultSetFuture executeAsync(String query) {
 		return session.executeAsync(query);
 	}
 
+	/**
+	 * Release the session. The underlying driver session is closed by the pool when no longer
+	 * used.
+	 */
 	public void close() {
-		if (cluster != null) {
-			cluster.close();
+		if (session != null) {
+			session = null;
+			CassandraSessionPool.getInstance().release(contactPoints, keyspace);
 		}
 	}
 
@@ -67,39 +145,123 @@ public class CassandraSession {
 		}
 	}
 
-	private String keyspace(String keyspace) {
-		return "CREATE KEYSPACE " + keyspace
-				+ " WITH REPLICATION = { 'class' : 'SimpleStrategy', 'replication_factor' : 1 };";
+	private String keyspace(String keyspace, String replication, boolean shared) {
+		return "CREATE KEYSPACE " + (shared ? "IF NOT EXISTS " : "") + keyspace
+				+ " WITH REPLICATION = " + replication + ";";
 	}
 
-	private String initEvent() {
-		return "CREATE TABLE EVENT (ID int, CPU int, EVENT_TYPE_ID int, EVENT_PRODUCER_ID int, CATEGORY int, TIMESTAMP bigint, LPAR bigint, DPAR double, PRIMARY KEY ((ID), TIMESTAMP, LPAR));";
+	/**
+	 * Get the database name of a trace of a shared keyspace.
+	 * 
+	 * @param keyspace
+	 *            shared keyspace name
+	 * @param traceId
+	 *            trace id in the keyspace
+	 * @return the trace database name
+	 */
+	public static String getDbName(String keyspace, String traceId) {
+		return keyspace + "." + traceId;
 	}
 
-	private String initProducer() {
-		return "CREATE TABLE EVENT_PRODUCER (ID int PRIMARY KEY, NAME ascii);";
+	/**
+	 * Drop the keyspace of a trace, e.g., after a failed or cancelled import. A trace of a shared
+	 * keyspace cannot be removed this way, and is left as is.
+	 * 
+	 * @param dbName
+	 *            trace database name
+	 * @return true if the keyspace has been dropped
+	 */
+	public static boolean drop(String dbName) {
+		if (dbName.indexOf('.') >= 0) {
+			return false;
+		}
+		String contactPoints = CassandraLoaderConfig.getInstance().get(Property.CONTACT_POINTS,
+				CassandraSessionPool.DEFAULT_CONTACT_POINTS);
+		CassandraSessionPool pool = CassandraSessionPool.getInstance();
+		Session admin = pool.acquire(contactPoints, null);
+		try {
+			admin.execute("DROP KEYSPACE IF EXISTS " + dbName + ";");
+		} finally {
+			pool.release(contactPoints, null);
+		}
+		CassandraIntervalCache.getInstance().clear(dbName);
+		CassandraMetadataCache.getInstance().invalidate(dbName);
+		return true;
+	}
 
+	public PreparedStatement prepare(String statement) {
+		return session.prepare(statement);
 	}
 
-	private String initType() {
-		return "CREATE TABLE EVENT_TYPE (ID int PRIMARY KEY, NAME ascii);";
+	/**
+	 * Prepare a statement once for the underlying driver session: later calls with the same
+	 * query return the cached prepared statement.
+	 * 
+	 * @param statement
+	 *            CQL query, with bind markers
+	 * @return the prepared statement
+	 */
+	public PreparedStatement prepareCached(String statement) {
+		return CassandraSessionPool.getInstance().prepare(contactPoints, keyspace, statement);
+	}
 
+	public ResultSetFuture executeAsync(Statement statement) {
+		return session.executeAsync(statement);
 	}
 
-	private String initTimestampIndex() {
-		return "CREATE INDEX IF NOT EXISTS tidx ON EVENT (TIMESTAMP);";
+	public String getKeyspace() {
+		return keyspace;
+	}
 
+	/**
+	 * @return the trace id in a shared keyspace, null if the keyspace is not shared
+	 */
+	public String getTraceId() {
+		return traceId;
 	}
 
-	private String initEndTimestampIndex() {
-		return "CREATE INDEX IF NOT EXISTS etidx ON EVENT (LPAR);";
+	public CassandraSchema getSchema() {
+		return schema;
 	}
 
-	public PreparedStatement prepare(String statement) {
-		return session.prepare(statement);
+	/**
+	 * Check if a table exists in the session keyspace.
+	 * 
+	 * @param table
+	 *            table name
+	 * @return true if the table exists
+	 */
+	public boolean hasTable(String table) {
+		return getTable(table) != null;
 	}
 
-	public ResultSetFuture executeAsync(BoundStatement statement) {
-		return session.executeAsync(statement);
+	/**
+	 * Check if a column exists in a table of the session keyspace.
+	 * 
+	 * @param table
+	 *            table name
+	 * @param column
+	 *            column name
+	 * @return true if the table exists and has the column
+	 */
+	public boolean hasColumn(String table, String column) {
+		TableMetadata t = getTable(table);
+		return t != null && t.getColumn(column) != null;
+	}
+
+	private TableMetadata getTable(String table) {
+		KeyspaceMetadata ks = session.getCluster().getMetadata().getKeyspace(keyspace);
+		return (ks == null) ? null : ks.getTable(table);
+	}
+
+	/**
+	 * Get the replicas of a partition of the session keyspace.
+	 * 
+	 * @param partitionKey
+	 *            serialized partition key (routing key)
+	 * @return the replicas, the primary replica first
+	 */
+	public Set<Host> getReplicas(ByteBuffer partitionKey) {
+		return session.getCluster().getMetadata().getReplicas(keyspace, partitionKey);
 	}
 }
@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolOptions.Compression;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.policies.RoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import fr.inria.soctrace.framesoc.cassandra.loader.CassandraLoaderConfig.Property;
+
+/**
+ * Process-wide registry of the Cassandra driver sessions.
+ *
+ * <p>
+ * There is one {@link Cluster} per set of contact points, and one {@link Session} per keyspace
+ * of a cluster. Sessions are reference counted: a session nobody uses is kept open for
+ * SESSION_IDLE_TIMEOUT milliseconds, so that reopening the same trace does not reconnect, and
+ * is then closed. A cluster is closed with its last session.
+ *
+ * <p>
+ * Sessions are connected outside the registry lock: the first caller for a keyspace registers a
+ * future session and connects, while the other callers for the same keyspace wait for that
+ * future. Callers for other keyspaces are never blocked by a connection.
+ *
+ * <p>
+ * The clusters are configured with the connection properties of the
+ * {@link CassandraLoaderConfig}: PORT, LOCAL_DC (hosts of other datacenters are not used when
+ * set), TOKEN_AWARE (on by default), COMPRESSION, and the CONNECTIONS_PER_HOST and
+ * NEW_CONNECTION_THRESHOLD pooling options.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraSessionPool {
+
+	// logger
+	private static final Logger logger = LoggerFactory.getLogger(CassandraSessionPool.class);
+
+	public static final String DEFAULT_CONTACT_POINTS = "127.0.0.1";
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+	/**
+	 * Key used for the session not bound to any keyspace
+	 */
+	private static final String NO_KEYSPACE = "";
+
+	private static class SessionEntry {
+		SettableFuture<Session> session = SettableFuture.create();
+		ConcurrentMap<String, PreparedStatement> statements = new ConcurrentHashMap<>();
+		int refs = 0;
+		long idleSince = 0;
+	}
+
+	private static class ClusterEntry {
+		Cluster cluster;
+		Map<String, SessionEntry> sessions = new HashMap<>();
+	}
+
+	private static CassandraSessionPool instance = null;
+
+	private final Map<String, ClusterEntry> clusters = new HashMap<>();
+	private final ScheduledExecutorService evictor = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Cassandra session evictor");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/**
+	 * @return the session registry
+	 */
+	public static synchronized CassandraSessionPool getInstance() {
+		if (instance == null) {
+			instance = new CassandraSessionPool();
+		}
+		return instance;
+	}
+
+	private CassandraSessionPool() {
+	}
+
+	/**
+	 * Get a session, opening it if needed. Each call must be followed by a call to
+	 * {@link #release(String, String)} with the same parameters.
+	 *
+	 * @param contactPoints
+	 *            comma separated contact points
+	 * @param keyspace
+	 *            keyspace name, or null for a session not bound to any keyspace
+	 * @return the session
+	 */
+	public Session acquire(String contactPoints, String keyspace) {
+		String key = (keyspace == null) ? NO_KEYSPACE : keyspace;
+		ClusterEntry ce;
+		SessionEntry se;
+		boolean connect = false;
+		synchronized (this) {
+			ce = clusters.get(contactPoints);
+			if (ce == null) {
+				// building a cluster does not connect
+				ce = new ClusterEntry();
+				ce.cluster = buildCluster(contactPoints);
+				clusters.put(contactPoints, ce);
+			}
+			se = ce.sessions.get(key);
+			if (se == null) {
+				se = new SessionEntry();
+				ce.sessions.put(key, se);
+				connect = true;
+			}
+			se.refs++;
+		}
+		if (connect) {
+			try {
+				se.session.set((keyspace == null) ? ce.cluster.connect() : ce.cluster
+						.connect(keyspace));
+				logger.debug("Session opened: {} {}", contactPoints, key);
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					ce.sessions.remove(key);
+					if (ce.sessions.isEmpty() && clusters.get(contactPoints) == ce) {
+						closeCluster(contactPoints, ce);
+					}
+				}
+				se.session.setException(e);
+				throw e;
+			}
+		}
+		try {
+			return Uninterruptibles.getUninterruptibly(se.session);
+		} catch (ExecutionException e) {
+			// the entry was removed by the caller that failed to connect
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	/**
+	 * Release a session obtained with {@link #acquire(String, String)}.
+	 *
+	 * @param contactPoints
+	 *            comma separated contact points
+	 * @param keyspace
+	 *            keyspace name, or null for a session not bound to any keyspace
+	 */
+	public synchronized void release(String contactPoints, String keyspace) {
+		ClusterEntry ce = clusters.get(contactPoints);
+		if (ce == null) {
+			return;
+		}
+		SessionEntry se = ce.sessions.get((keyspace == null) ? NO_KEYSPACE : keyspace);
+		if (se == null || se.refs == 0) {
+			return;
+		}
+		se.refs--;
+		if (se.refs == 0) {
+			se.idleSince = System.currentTimeMillis();
+			long timeout = getIdleTimeout();
+			evictor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					evictIdle();
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Get a statement prepared on a session obtained with {@link #acquire(String, String)},
+	 * preparing it only the first time. The prepared statements are dropped with the session.
+	 * 
+	 * @param contactPoints
+	 *            comma separated contact points
+	 * @param keyspace
+	 *            keyspace name, or null for a session not bound to any keyspace
+	 * @param query
+	 *            CQL query, with bind markers
+	 * @return the prepared statement
+	 */
+	public PreparedStatement prepare(String contactPoints, String keyspace, String query) {
+		SessionEntry se;
+		synchronized (this) {
+			ClusterEntry ce = clusters.get(contactPoints);
+			se = (ce == null) ? null : ce.sessions.get((keyspace == null) ? NO_KEYSPACE
+					: keyspace);
+		}
+		Assert.isNotNull(se, "Session not acquired: " + contactPoints + " " + keyspace);
+		PreparedStatement ps = se.statements.get(query);
+		if (ps == null) {
+			// preparing twice the same query is harmless
+			ps = Futures.getUnchecked(se.session).prepare(query);
+			PreparedStatement old = se.statements.putIfAbsent(query, ps);
+			if (old != null) {
+				ps = old;
+			}
+		}
+		return ps;
+	}
+
+	/**
+	 * Close the sessions unused for more than the idle timeout, and the clusters without
+	 * sessions.
+	 */
+	public synchronized void evictIdle() {
+		long now = System.currentTimeMillis();
+		long timeout = getIdleTimeout();
+		Iterator<Map.Entry<String, ClusterEntry>> cit = clusters.entrySet().iterator();
+		while (cit.hasNext()) {
+			Map.Entry<String, ClusterEntry> c = cit.next();
+			Iterator<Map.Entry<String, SessionEntry>> sit = c.getValue().sessions.entrySet()
+					.iterator();
+			while (sit.hasNext()) {
+				Map.Entry<String, SessionEntry> s = sit.next();
+				SessionEntry se = s.getValue();
+				if (se.refs == 0 && now - se.idleSince >= timeout) {
+					Futures.getUnchecked(se.session).closeAsync();
+					sit.remove();
+					logger.debug("Session closed: {} {}", c.getKey(), s.getKey());
+				}
+			}
+			if (c.getValue().sessions.isEmpty()) {
+				c.getValue().cluster.closeAsync();
+				CassandraLoaderMetrics.getInstance().unregister(c.getKey());
+				cit.remove();
+				logger.debug("Cluster closed: {}", c.getKey());
+			}
+		}
+	}
+
+	private void closeCluster(String contactPoints, ClusterEntry ce) {
+		ce.cluster.closeAsync();
+		CassandraLoaderMetrics.getInstance().unregister(contactPoints);
+		clusters.remove(contactPoints);
+	}
+
+	private Cluster buildCluster(String contactPoints) {
+		CassandraLoaderConfig config = CassandraLoaderConfig.getInstance();
+		PoolingOptions pooling = new PoolingOptions();
+		int connections = config.getInt(Property.CONNECTIONS_PER_HOST, 0);
+		if (connections > 0) {
+			// core connections must never exceed max connections
+			if (connections > pooling.getMaxConnectionsPerHost(HostDistance.LOCAL)) {
+				pooling.setMaxConnectionsPerHost(HostDistance.LOCAL, connections);
+				pooling.setCoreConnectionsPerHost(HostDistance.LOCAL, connections);
+			} else {
+				pooling.setCoreConnectionsPerHost(HostDistance.LOCAL, connections);
+				pooling.setMaxConnectionsPerHost(HostDistance.LOCAL, connections);
+			}
+		}
+		// in-flight requests on a connection above which the driver opens another connection
+		int requests = config.getInt(Property.NEW_CONNECTION_THRESHOLD, 0);
+		if (requests > 0) {
+			pooling.setMaxSimultaneousRequestsPerConnectionThreshold(HostDistance.LOCAL, requests);
+			pooling.setMaxSimultaneousRequestsPerConnectionThreshold(HostDistance.REMOTE,
+					requests);
+		}
+		String localDc = config.get(Property.LOCAL_DC, null);
+		LoadBalancingPolicy policy = (localDc == null) ? new RoundRobinPolicy()
+				: new DCAwareRoundRobinPolicy(localDc);
+		if (config.getBoolean(Property.TOKEN_AWARE, true)) {
+			policy = new TokenAwarePolicy(policy);
+		}
+		Cluster.Builder builder = Cluster.builder().addContactPoints(contactPoints.split(","))
+				.withPoolingOptions(pooling).withLoadBalancingPolicy(policy)
+				.withCompression(config.getEnum(Property.COMPRESSION, Compression.NONE));
+		int port = config.getInt(Property.PORT, 0);
+		if (port > 0) {
+			builder.withPort(port);
+		}
+		Cluster cluster = builder.build();
+		CassandraLoaderMetrics.getInstance().register(contactPoints, cluster);
+		logger.debug("Cluster opened: {}", contactPoints);
+		return cluster;
+	}
+
+	private long getIdleTimeout() {
+		return CassandraLoaderConfig.getInstance().getLong(Property.SESSION_IDLE_TIMEOUT,
+				DEFAULT_IDLE_TIMEOUT);
+	}
+
+}
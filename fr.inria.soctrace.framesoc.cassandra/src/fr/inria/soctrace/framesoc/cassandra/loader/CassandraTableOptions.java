@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage options of the EVENT table, given at keyspace creation.
+ *
+ * <pre>
+ * Profiles:
+ * - DEFAULT: Cassandra defaults (size-tiered compaction, LZ4 with 64 KB chunks).
+ * - TIME_SERIES: trace events are written once, in time order, and read by time range:
+ *   date-tiered compaction (the time-window compaction of Cassandra 2.1) never merges old and
+ *   new data again, 256 KB compression chunks favor long range reads, and a high bloom filter
+ *   false positive chance is enough since reads target known partitions.
+ * - READ_OPTIMIZED: leveled compaction, reading each partition from few SSTables at the cost of
+ *   more compaction I/O during the import, 64 KB chunks and a precise bloom filter.
+ * </pre>
+ *
+ * Each option of the profile can be replaced by a CQL value (e.g., a compaction map literal).
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class CassandraTableOptions {
+
+	/**
+	 * Predefined option sets
+	 */
+	public static enum Profile {
+		DEFAULT,
+		TIME_SERIES,
+		READ_OPTIMIZED;
+	}
+
+	private String compaction = null;
+	private String compression = null;
+	private String bloomFilterFpChance = null;
+	private String caching = null;
+
+	/**
+	 * Cassandra default options.
+	 */
+	public CassandraTableOptions() {
+	}
+
+	/**
+	 * Options of a profile.
+	 *
+	 * @param profile
+	 *            table profile
+	 */
+	public CassandraTableOptions(Profile profile) {
+		switch (profile) {
+		case TIME_SERIES:
+			compaction = "{ 'class' : 'DateTieredCompactionStrategy', 'base_time_seconds' : 3600,"
+					+ " 'max_sstable_age_days' : 365 }";
+			compression = "{ 'sstable_compression' : 'LZ4Compressor', 'chunk_length_kb' : 256 }";
+			bloomFilterFpChance = "0.1";
+			caching = "{ 'keys' : 'ALL', 'rows_per_partition' : 'NONE' }";
+			break;
+		case READ_OPTIMIZED:
+			compaction = "{ 'class' : 'LeveledCompactionStrategy', 'sstable_size_in_mb' : 160 }";
+			compression = "{ 'sstable_compression' : 'LZ4Compressor', 'chunk_length_kb' : 64 }";
+			bloomFilterFpChance = "0.01";
+			caching = "{ 'keys' : 'ALL', 'rows_per_partition' : 'NONE' }";
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @param compaction
+	 *            compaction map literal, null for the default
+	 */
+	public void setCompaction(String compaction) {
+		this.compaction = compaction;
+	}
+
+	/**
+	 * @param compression
+	 *            compression map literal, null for the default
+	 */
+	public void setCompression(String compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * @param bloomFilterFpChance
+	 *            bloom filter false positive chance, null for the default
+	 */
+	public void setBloomFilterFpChance(String bloomFilterFpChance) {
+		this.bloomFilterFpChance = bloomFilterFpChance;
+	}
+
+	/**
+	 * @param caching
+	 *            caching map literal, null for the default
+	 */
+	public void setCaching(String caching) {
+		this.caching = caching;
+	}
+
+	/**
+	 * @return the WITH clause of the table creation (possibly empty), without the final
+	 *         semicolon
+	 */
+	public String getWithClause() {
+		List<String> options = new ArrayList<>();
+		if (compaction != null) {
+			options.add("compaction = " + compaction);
+		}
+		if (compression != null) {
+			options.add("compression = " + compression);
+		}
+		if (bloomFilterFpChance != null) {
+			options.add("bloom_filter_fp_chance = " + bloomFilterFpChance);
+		}
+		if (caching != null) {
+			options.add("caching = " + caching);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String option : options) {
+			sb.append(sb.length() == 0 ? " WITH " : " AND ");
+			sb.append(option);
+		}
+		return sb.toString();
+	}
+
+}
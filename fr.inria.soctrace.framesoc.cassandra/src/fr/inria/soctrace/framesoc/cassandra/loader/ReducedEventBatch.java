@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2015 INRIA.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Generoso Pagano - initial API and implementation
+ ******************************************************************************/
+package fr.inria.soctrace.framesoc.cassandra.loader;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import com.datastax.driver.core.Row;
+
+import fr.inria.soctrace.framesoc.ui.gantt.model.ReducedEvent;
+
+/**
+ * Columnar batch of reduced events.
+ *
+ * <p>
+ * The event fields are stored in parallel primitive arrays, instead of one object per event. The
+ * batch is also a read-only list of {@link ReducedEvent}, so it can be pushed to the loader queue
+ * as is: {@link #get(int)} creates the event object on the fly, and consumers only keep it as
+ * long as they need it.
+ *
+ * <p>
+ * A batch is only filled by the loader while decoding: the methods modifying it are package
+ * private, and the list modification methods throw {@link UnsupportedOperationException}, so
+ * the batches pushed to the queue or shared through the interval cache cannot be changed.
+ *
+ * @author "Generoso Pagano <generoso.pagano@inria.fr>"
+ */
+public class ReducedEventBatch extends AbstractList<ReducedEvent> implements RandomAccess {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Number of bytes used by an event in the arrays and in {@link #writeTo(ByteBuffer)}
+	 */
+	public static final int EVENT_BYTES = 5 * 4 + 2 * 8;
+
+	private int size = 0;
+	private int[] cpu;
+	private int[] category;
+	private long[] timestamp;
+	private long[] endTimestamp;
+	private int[] typeId;
+	private int[] producerId;
+	private int[] endProducerId;
+
+	public ReducedEventBatch() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            initial capacity
+	 */
+	public ReducedEventBatch(int capacity) {
+		capacity = Math.max(1, capacity);
+		cpu = new int[capacity];
+		category = new int[capacity];
+		timestamp = new long[capacity];
+		endTimestamp = new long[capacity];
+		typeId = new int[capacity];
+		producerId = new int[capacity];
+		endProducerId = new int[capacity];
+	}
+
+	/**
+	 * Append an event.
+	 *
+	 * @return the index of the event in the batch
+	 */
+	int add(int cpu, int category, long timestamp, long endTimestamp, int typeId,
+			int producerId, int endProducerId) {
+		if (size == this.timestamp.length) {
+			grow();
+		}
+		this.cpu[size] = cpu;
+		this.category[size] = category;
+		this.timestamp[size] = timestamp;
+		this.endTimestamp[size] = endTimestamp;
+		this.typeId[size] = typeId;
+		this.producerId[size] = producerId;
+		this.endProducerId[size] = endProducerId;
+		return size++;
+	}
+
+	/**
+	 * Append an event read from a row with the {@link ReducedEvent#SELECT_COLUMNS} columns.
+	 *
+	 * <p>
+	 * The values are decoded directly from the serialized column values, as returned by
+	 * {@link Row#getBytesUnsafe(int)}, into the batch arrays, without the type checks and codec
+	 * lookups of the typed getters. Null values are read as 0, as the typed getters do.
+	 *
+	 * @param row
+	 *            result row
+	 * @return the index of the event in the batch
+	 */
+	int add(Row row) {
+		if (size == timestamp.length) {
+			grow();
+		}
+		cpu[size] = readInt(row.getBytesUnsafe(ReducedEvent.CPU));
+		category[size] = readInt(row.getBytesUnsafe(ReducedEvent.CATEGORY - 1));
+		timestamp[size] = readLong(row.getBytesUnsafe(ReducedEvent.TIMESTAMP - 1));
+		endTimestamp[size] = readLong(row.getBytesUnsafe(ReducedEvent.END_TIMESTAMP - 1));
+		typeId[size] = readInt(row.getBytesUnsafe(ReducedEvent.TYPE_ID - 1));
+		producerId[size] = readInt(row.getBytesUnsafe(ReducedEvent.PRODUCER_ID - 1));
+		endProducerId[size] = (int) readDouble(row
+				.getBytesUnsafe(ReducedEvent.END_PRODUCER_ID - 1));
+		return size++;
+	}
+
+	/**
+	 * Decode a serialized CQL int. The buffer position is not modified.
+	 */
+	static int readInt(ByteBuffer value) {
+		return (value == null || value.remaining() < 4) ? 0 : value.getInt(value.position());
+	}
+
+	/**
+	 * Decode a serialized CQL bigint. The buffer position is not modified.
+	 */
+	static long readLong(ByteBuffer value) {
+		return (value == null || value.remaining() < 8) ? 0 : value.getLong(value.position());
+	}
+
+	/**
+	 * Decode a serialized CQL double. The buffer position is not modified.
+	 */
+	static double readDouble(ByteBuffer value) {
+		return (value == null || value.remaining() < 8) ? 0 : value.getDouble(value.position());
+	}
+
+	/**
+	 * Remove the last event, while decoding.
+	 */
+	void removeLast() {
+		if (size > 0) {
+			size--;
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	public int getCpu(int i) {
+		return cpu[check(i)];
+	}
+
+	public int getCategory(int i) {
+		return category[check(i)];
+	}
+
+	public long getTimestamp(int i) {
+		return timestamp[check(i)];
+	}
+
+	public long getEndTimestamp(int i) {
+		return endTimestamp[check(i)];
+	}
+
+	public int getTypeId(int i) {
+		return typeId[check(i)];
+	}
+
+	public int getProducerId(int i) {
+		return producerId[check(i)];
+	}
+
+	public int getEndProducerId(int i) {
+		return endProducerId[check(i)];
+	}
+
+	/**
+	 * Create a reduced event with the values of the i-th event of the batch.
+	 */
+	@Override
+	public ReducedEvent get(int i) {
+		check(i);
+		ReducedEvent ev = new ReducedEvent();
+		ev.cpu = cpu[i];
+		ev.category = category[i];
+		ev.timestamp = timestamp[i];
+		ev.endTimestamp = endTimestamp[i];
+		ev.typeId = typeId[i];
+		ev.producerId = producerId[i];
+		ev.endProducerId = endProducerId[i];
+		return ev;
+	}
+
+	/**
+	 * @return the number of bytes used by the events of the batch
+	 */
+	public long getByteSize() {
+		return (long) size * EVENT_BYTES;
+	}
+
+	/**
+	 * Write the events of the batch to a buffer, which must have {@link #getByteSize()} bytes
+	 * remaining.
+	 *
+	 * @param buffer
+	 *            destination buffer
+	 */
+	public void writeTo(ByteBuffer buffer) {
+		for (int i = 0; i < size; i++) {
+			buffer.putInt(cpu[i]);
+			buffer.putInt(category[i]);
+			buffer.putLong(timestamp[i]);
+			buffer.putLong(endTimestamp[i]);
+			buffer.putInt(typeId[i]);
+			buffer.putInt(producerId[i]);
+			buffer.putInt(endProducerId[i]);
+		}
+	}
+
+	/**
+	 * Read a batch written with {@link #writeTo(ByteBuffer)}.
+	 *
+	 * @param buffer
+	 *            source buffer
+	 * @param size
+	 *            number of events to read
+	 * @return the batch
+	 */
+	public static ReducedEventBatch readFrom(ByteBuffer buffer, int size) {
+		ReducedEventBatch batch = new ReducedEventBatch(size);
+		for (int i = 0; i < size; i++) {
+			batch.add(buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getLong(),
+					buffer.getInt(), buffer.getInt(), buffer.getInt());
+		}
+		return batch;
+	}
+
+	private int check(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+		return i;
+	}
+
+	private void grow() {
+		int capacity = timestamp.length * 2;
+		cpu = Arrays.copyOf(cpu, capacity);
+		category = Arrays.copyOf(category, capacity);
+		timestamp = Arrays.copyOf(timestamp, capacity);
+		endTimestamp = Arrays.copyOf(endTimestamp, capacity);
+		typeId = Arrays.copyOf(typeId, capacity);
+		producerId = Arrays.copyOf(producerId, capacity);
+		endProducerId = Arrays.copyOf(endProducerId, capacity);
+	}
+
+}
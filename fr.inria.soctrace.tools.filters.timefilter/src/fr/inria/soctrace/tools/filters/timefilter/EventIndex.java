@@ -0,0 +1,512 @@
+/* ===========================================================
+ * Filter Tool module
+ * ===========================================================
+ *
+ * (C) Copyright 2013 Damien Dosimont. All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 3.0 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ */
+
+package fr.inria.soctrace.tools.filters.timefilter;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.inria.soctrace.lib.model.Event;
+import fr.inria.soctrace.lib.model.EventProducer;
+import fr.inria.soctrace.lib.model.EventType;
+import fr.inria.soctrace.lib.model.Trace;
+import fr.inria.soctrace.lib.model.utils.SoCTraceException;
+import fr.inria.soctrace.lib.query.EventProducerQuery;
+import fr.inria.soctrace.lib.query.EventQuery;
+import fr.inria.soctrace.lib.query.ValueListString;
+import fr.inria.soctrace.lib.query.conditions.ConditionsConstants.ComparisonOperation;
+import fr.inria.soctrace.lib.query.conditions.ConditionsConstants.LogicalOperation;
+import fr.inria.soctrace.lib.query.conditions.LogicalCondition;
+import fr.inria.soctrace.lib.query.conditions.SimpleCondition;
+import fr.inria.soctrace.lib.storage.DBObject;
+import fr.inria.soctrace.lib.storage.DBObject.DBMode;
+import fr.inria.soctrace.lib.storage.TraceDBObject;
+import fr.inria.soctrace.lib.storage.utils.SQLConstants.FramesocTable;
+
+/**
+ * In-memory index of the events of a trace, answering the time filter conditions without
+ * scanning the database.
+ *
+ * Only primitive arrays are kept, sorted by timestamp: event ids, timestamps, producer ids and
+ * the "Value" parameter of each event, as an index in a dictionary of the values. The events of
+ * a time region are found by binary search, each type and each producer has a posting list (the
+ * sorted positions of its events), and event selections are bitmaps over the event positions.
+ * The Event objects of a result are read from the database by id, only for the selected events,
+ * or with a single time range query when the selection is dense.
+ *
+ * Traces with more than MAX_EVENTS events are not indexed: the filter queries the database.
+ * The index of the last trace used is kept, so several filters on the same trace load it only
+ * once, until the filter is disposed.
+ */
+public class EventIndex {
+
+	/**
+	 * Max number of events of an indexed trace (about 30 bytes per event)
+	 */
+	public static final int					MAX_EVENTS		= 5000000;
+
+	private static final String				VALUE			= "Value";
+	private static final int				NO_VALUE		= -1;
+	private static final int				ID_CHUNK		= 1000;
+	private static final int				RANGE_FRACTION	= 4;
+
+	private static EventIndex				last			= null;
+
+	private final String					dbName;
+	private final int[]						ids;
+	private final long[]					timestamps;
+	private final int[]						producerIds;
+	private final int[]						valueIds;
+	private final String[]					values;
+	private final Map<Integer, EventProducer>	producers;
+	private final Map<Integer, int[]>		typePostings;
+	private final Map<Integer, int[]>		producerPostings;
+
+	/**
+	 * Get the index of a trace, loading it if it is not the last one used.
+	 *
+	 * @return the index, or null if the trace has more than MAX_EVENTS events
+	 */
+	public static synchronized EventIndex getIndex(Trace trace) throws SoCTraceException {
+		if (last != null && last.dbName.equals(trace.getDbName()))
+			return last;
+		last = null;
+		TraceDBObject traceDB = null;
+		try {
+			traceDB = new TraceDBObject(trace.getDbName(), DBMode.DB_OPEN);
+			long count = count(traceDB);
+			if (count > MAX_EVENTS)
+				return null;
+			last = new EventIndex(trace.getDbName(), traceDB, (int) count);
+			return last;
+		} finally {
+			DBObject.finalClose(traceDB);
+		}
+	}
+
+	/**
+	 * Get the index of a trace only if it is the last one used, without loading it.
+	 *
+	 * @return the index, or null if it is not loaded
+	 */
+	public static synchronized EventIndex getLoadedIndex(Trace trace) {
+		if (last != null && last.dbName.equals(trace.getDbName()))
+			return last;
+		return null;
+	}
+
+	/**
+	 * Forget the index of the last trace used.
+	 */
+	public static synchronized void clear() {
+		last = null;
+	}
+
+	private static long count(TraceDBObject traceDB) throws SoCTraceException {
+		Statement stm = null;
+		ResultSet rs = null;
+		try {
+			stm = traceDB.getConnection().createStatement();
+			rs = stm.executeQuery("SELECT COUNT(*) FROM " + FramesocTable.EVENT);
+			return rs.next() ? rs.getLong(1) : 0;
+		} catch (SQLException e) {
+			throw new SoCTraceException(e);
+		} finally {
+			close(stm, rs);
+		}
+	}
+
+	private EventIndex(String dbName, TraceDBObject traceDB, int n) throws SoCTraceException {
+		this.dbName = dbName;
+		producers = new LinkedHashMap<Integer, EventProducer>();
+		for (EventProducer ep : new EventProducerQuery(traceDB).getList())
+			producers.put(ep.getId(), ep);
+		int[] typeIds = new int[n];
+		int[] eventIds = new int[n];
+		long[] eventTimestamps = new long[n];
+		int[] eventProducerIds = new int[n];
+		Statement stm = null;
+		ResultSet rs = null;
+		try {
+			stm = traceDB.getConnection().createStatement();
+			rs = stm.executeQuery("SELECT ID, TIMESTAMP, EVENT_TYPE_ID, EVENT_PRODUCER_ID FROM " + FramesocTable.EVENT + " ORDER BY TIMESTAMP ASC");
+			int i = 0;
+			while (rs.next() && i < n) {
+				eventIds[i] = rs.getInt(1);
+				eventTimestamps[i] = rs.getLong(2);
+				typeIds[i] = rs.getInt(3);
+				eventProducerIds[i] = rs.getInt(4);
+				i++;
+			}
+			// events added since the count are ignored
+			n = i;
+		} catch (SQLException e) {
+			throw new SoCTraceException(e);
+		} finally {
+			close(stm, rs);
+		}
+		ids = Arrays.copyOf(eventIds, n);
+		timestamps = Arrays.copyOf(eventTimestamps, n);
+		producerIds = Arrays.copyOf(eventProducerIds, n);
+		typeIds = Arrays.copyOf(typeIds, n);
+		valueIds = new int[n];
+		Arrays.fill(valueIds, NO_VALUE);
+		values = loadValues(traceDB);
+		typePostings = buildPostings(typeIds);
+		producerPostings = buildPostings(producerIds);
+	}
+
+	/**
+	 * Read the "Value" parameters, filling valueIds.
+	 *
+	 * @return the dictionary of the values
+	 */
+	private String[] loadValues(TraceDBObject traceDB) throws SoCTraceException {
+		// (id << 32 | position), sorted, to find the position of an event id
+		long[] positions = new long[ids.length];
+		for (int i = 0; i < ids.length; i++)
+			positions[i] = ((long) ids[i] << 32) | i;
+		Arrays.sort(positions);
+		Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		List<String> list = new ArrayList<String>();
+		Statement stm = null;
+		ResultSet rs = null;
+		try {
+			stm = traceDB.getConnection().createStatement();
+			rs = stm.executeQuery("SELECT P.EVENT_ID, P.VALUE FROM " + FramesocTable.EVENT_PARAM + " P JOIN " + FramesocTable.EVENT_PARAM_TYPE
+					+ " T ON P.EVENT_PARAM_TYPE_ID = T.ID WHERE T.NAME = '" + VALUE + "'");
+			while (rs.next()) {
+				int position = position(positions, rs.getInt(1));
+				if (position < 0)
+					continue;
+				String value = rs.getString(2);
+				Integer valueId = dictionary.get(value);
+				if (valueId == null) {
+					valueId = list.size();
+					dictionary.put(value, valueId);
+					list.add(value);
+				}
+				valueIds[position] = valueId;
+			}
+		} catch (SQLException e) {
+			throw new SoCTraceException(e);
+		} finally {
+			close(stm, rs);
+		}
+		return list.toArray(new String[list.size()]);
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Events with start <= timestamp <= end, of the given types (all if null or empty), without
+	 * the given values (none if null or empty), sorted by timestamp.
+	 */
+	public List<Event> getIncludedEvents(TimeRegion region, List<EventType> types, List<String> values) throws SoCTraceException {
+		return getEvents(included(region, types, values));
+	}
+
+	/**
+	 * Events with timestamp <= start or timestamp >= end, or of the given types, without the
+	 * given values, sorted by timestamp (same condition as the excluded event query).
+	 */
+	public List<Event> getExcludedEvents(TimeRegion region, List<EventType> types, List<String> values) throws SoCTraceException {
+		int n = ids.length;
+		BitSet selection = new BitSet(n);
+		selection.set(0, upperBound(region.getTimeStampStart()));
+		selection.set(lowerBound(region.getTimeStampEnd()), n);
+		if (types != null && types.size() != 0)
+			selection.or(typeMask(types, 0, n));
+		removeValues(selection, values);
+		return getEvents(selection);
+	}
+
+	/**
+	 * Producers of the included events, in order of first event.
+	 */
+	public List<EventProducer> getIncludedEventProducers(TimeRegion region, List<EventType> types, List<String> values) {
+		List<EventProducer> result = new ArrayList<EventProducer>();
+		if ((types == null || types.size() == 0) && (values == null || values.size() == 0)) {
+			// plain time range: one binary search per producer
+			int from = lowerBound(region.getTimeStampStart());
+			int to = upperBound(region.getTimeStampEnd());
+			BitSet firsts = new BitSet(ids.length);
+			for (int[] postings : producerPostings.values()) {
+				int first = firstFrom(postings, from);
+				if (first < postings.length && postings[first] < to)
+					firsts.set(postings[first]);
+			}
+			for (int i = firsts.nextSetBit(0); i >= 0; i = firsts.nextSetBit(i + 1))
+				result.add(producers.get(producerIds[i]));
+			return result;
+		}
+		BitSet selection = included(region, types, values);
+		BitSet found = new BitSet();
+		for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+			if (!found.get(producerIds[i])) {
+				found.set(producerIds[i]);
+				result.add(producers.get(producerIds[i]));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Producers of the trace without included events.
+	 */
+	public List<EventProducer> getExcludedEventProducers(TimeRegion region, List<EventType> types, List<String> values) {
+		BitSet included = new BitSet();
+		for (EventProducer ep : getIncludedEventProducers(region, types, values))
+			included.set(ep.getId());
+		List<EventProducer> result = new ArrayList<EventProducer>();
+		for (EventProducer ep : producers.values()) {
+			if (!included.get(ep.getId()))
+				result.add(ep);
+		}
+		return result;
+	}
+
+	private BitSet included(TimeRegion region, List<EventType> types, List<String> values) {
+		int from = lowerBound(region.getTimeStampStart());
+		int to = upperBound(region.getTimeStampEnd());
+		BitSet selection;
+		if (types != null && types.size() != 0) {
+			selection = typeMask(types, from, to);
+		} else {
+			selection = new BitSet(ids.length);
+			selection.set(from, Math.max(from, to));
+		}
+		removeValues(selection, values);
+		return selection;
+	}
+
+	/**
+	 * Positions in [from, to) of the events of the given types.
+	 */
+	private BitSet typeMask(List<EventType> types, int from, int to) {
+		BitSet mask = new BitSet(ids.length);
+		for (EventType et : types) {
+			int[] postings = typePostings.get(et.getId());
+			if (postings == null)
+				continue;
+			for (int i = firstFrom(postings, from); i < postings.length && postings[i] < to; i++)
+				mask.set(postings[i]);
+		}
+		return mask;
+	}
+
+	private void removeValues(BitSet selection, List<String> removed) {
+		if (removed == null || removed.size() == 0)
+			return;
+		BitSet removedIds = new BitSet(values.length);
+		for (int v = 0; v < values.length; v++) {
+			if (removed.contains(values[v]))
+				removedIds.set(v);
+		}
+		for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+			if (valueIds[i] != NO_VALUE && removedIds.get(valueIds[i]))
+				selection.clear(i);
+		}
+	}
+
+	/**
+	 * Read the selected events from the database, sorted by timestamp. When more than one chunk
+	 * of ids is selected and the selection covers at least 1/RANGE_FRACTION of the positions
+	 * between its first and last event, the events of that time range are read with a single
+	 * query and the unselected ones are dropped. Otherwise the events are read by chunks of ids.
+	 */
+	private List<Event> getEvents(BitSet selection) throws SoCTraceException {
+		Map<Integer, Event> events = new HashMap<Integer, Event>();
+		int first = selection.nextSetBit(0);
+		if (first < 0)
+			return new ArrayList<Event>();
+		int last = selection.length() - 1;
+		int selected = selection.cardinality();
+		TraceDBObject traceDB = null;
+		try {
+			traceDB = new TraceDBObject(dbName, DBMode.DB_OPEN);
+			if (selected > ID_CHUNK && selected >= (last - first + 1) / RANGE_FRACTION) {
+				BitSet selectedIds = new BitSet();
+				for (int i = first; i >= 0; i = selection.nextSetBit(i + 1))
+					selectedIds.set(ids[i]);
+				readEvents(traceDB, timestamps[first], timestamps[last], selectedIds, events);
+				return sort(selection, events);
+			}
+			ValueListString vls = new ValueListString();
+			int chunk = 0;
+			for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+				vls.addValue(String.valueOf(ids[i]));
+				if (++chunk == ID_CHUNK) {
+					readEvents(traceDB, vls, events);
+					vls = new ValueListString();
+					chunk = 0;
+				}
+			}
+			if (chunk > 0)
+				readEvents(traceDB, vls, events);
+		} finally {
+			DBObject.finalClose(traceDB);
+		}
+		return sort(selection, events);
+	}
+
+	/**
+	 * Selected events in position order.
+	 */
+	private List<Event> sort(BitSet selection, Map<Integer, Event> events) {
+		List<Event> result = new ArrayList<Event>(events.size());
+		for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+			Event e = events.get(ids[i]);
+			if (e != null)
+				result.add(e);
+		}
+		return result;
+	}
+
+	private static void readEvents(TraceDBObject traceDB, ValueListString vls, Map<Integer, Event> events) throws SoCTraceException {
+		EventQuery eventQuery = new EventQuery(traceDB);
+		eventQuery.setElementWhere(new SimpleCondition("ID", ComparisonOperation.IN, vls.getValueString()));
+		for (Event e : eventQuery.getList())
+			events.put(e.getId(), e);
+	}
+
+	private static void readEvents(TraceDBObject traceDB, long start, long end, BitSet selectedIds, Map<Integer, Event> events) throws SoCTraceException {
+		EventQuery eventQuery = new EventQuery(traceDB);
+		LogicalCondition where = new LogicalCondition(LogicalOperation.AND);
+		where.addCondition(new SimpleCondition("TIMESTAMP", ComparisonOperation.GE, String.valueOf(start)));
+		where.addCondition(new SimpleCondition("TIMESTAMP", ComparisonOperation.LE, String.valueOf(end)));
+		eventQuery.setElementWhere(where);
+		for (Event e : eventQuery.getList()) {
+			if (selectedIds.get(e.getId()))
+				events.put(e.getId(), e);
+		}
+	}
+
+	private static void close(Statement stm, ResultSet rs) throws SoCTraceException {
+		try {
+			if (rs != null)
+				rs.close();
+			if (stm != null)
+				stm.close();
+		} catch (SQLException e) {
+			throw new SoCTraceException(e);
+		}
+	}
+
+	/**
+	 * Position of an event id, or -1 if it is not indexed.
+	 */
+	private static int position(long[] positions, int id) {
+		int lo = 0, hi = positions.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int midId = (int) (positions[mid] >> 32);
+			if (midId < id)
+				lo = mid + 1;
+			else if (midId > id)
+				hi = mid;
+			else
+				return (int) positions[mid];
+		}
+		return -1;
+	}
+
+	/**
+	 * First position whose timestamp is >= t.
+	 */
+	private int lowerBound(long t) {
+		int lo = 0, hi = timestamps.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (timestamps[mid] < t)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * First position whose timestamp is > t.
+	 */
+	private int upperBound(long t) {
+		int lo = 0, hi = timestamps.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (timestamps[mid] <= t)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * First index of a posting list whose position is >= from.
+	 */
+	private static int firstFrom(int[] postings, int from) {
+		int lo = 0, hi = postings.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (postings[mid] < from)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Sorted positions of the events of each key.
+	 */
+	private static Map<Integer, int[]> buildPostings(int[] keys) {
+		Map<Integer, int[]> counts = new HashMap<Integer, int[]>();
+		for (int key : keys) {
+			int[] count = counts.get(key);
+			if (count == null)
+				counts.put(key, count = new int[1]);
+			count[0]++;
+		}
+		Map<Integer, int[]> postings = new HashMap<Integer, int[]>();
+		for (Map.Entry<Integer, int[]> entry : counts.entrySet()) {
+			postings.put(entry.getKey(), new int[entry.getValue()[0]]);
+			entry.getValue()[0] = 0;
+		}
+		for (int i = 0; i < keys.length; i++) {
+			int[] count = counts.get(keys[i]);
+			postings.get(keys[i])[count[0]++] = i;
+		}
+		return postings;
+	}
+
+}
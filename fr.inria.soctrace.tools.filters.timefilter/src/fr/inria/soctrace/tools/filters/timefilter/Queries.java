@@ -23,7 +23,11 @@
 
 package fr.inria.soctrace.tools.filters.timefilter;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import fr.inria.soctrace.lib.model.Event;
@@ -40,10 +44,12 @@ import fr.inria.soctrace.lib.query.conditions.LogicalCondition;
 import fr.inria.soctrace.lib.query.conditions.SimpleCondition;
 import fr.inria.soctrace.lib.storage.DBObject.DBMode;
 import fr.inria.soctrace.lib.storage.TraceDBObject;
+import fr.inria.soctrace.lib.storage.utils.SQLConstants.FramesocTable;
 
 public class Queries {
 	private TimeFilterParameters	timeFilterParameters;
 	final static boolean			PAGE	= true;
+	final static boolean			INDEX	= true;
 
 	public Queries(TimeFilterParameters timeFilterParameters) throws SoCTraceException {
 		super();
@@ -59,13 +65,32 @@ public class Queries {
 	}
 
 	public List<Event> getEvent() throws SoCTraceException {
+		EventIndex index = INDEX ? EventIndex.getIndex(timeFilterParameters.getTrace()) : null;
+		if (index != null) {
+			if (timeFilterParameters.isInclude())
+				return index.getIncludedEvents(timeFilterParameters.getTimeRegion(), timeFilterParameters.getEventTypes(), timeFilterParameters.getValues());
+			else
+				return index.getExcludedEvents(timeFilterParameters.getTimeRegion(), timeFilterParameters.getEventTypes(), timeFilterParameters.getValues());
+		}
 		if (timeFilterParameters.isInclude())
 			return getIncludedEvent();
 		else
 			return getExcludedEvent();
 	}
 
+	/**
+	 * Producers of the filter, from the event index when it is already loaded for the trace,
+	 * otherwise from the database (with a single SELECT DISTINCT when no value is filtered): the
+	 * index is not built only to get the producers.
+	 */
 	public List<EventProducer> getEventProducers() throws SoCTraceException {
+		EventIndex index = INDEX ? EventIndex.getLoadedIndex(timeFilterParameters.getTrace()) : null;
+		if (index != null) {
+			if (timeFilterParameters.isInclude())
+				return index.getIncludedEventProducers(timeFilterParameters.getTimeRegion(), timeFilterParameters.getEventTypes(), timeFilterParameters.getValues());
+			else
+				return index.getExcludedEventProducers(timeFilterParameters.getTimeRegion(), timeFilterParameters.getEventTypes(), timeFilterParameters.getValues());
+		}
 		if (PAGE) {
 			if (timeFilterParameters.isInclude())
 				return getIncludedEventProducersPerPage();
@@ -111,8 +136,11 @@ public class Queries {
 
 	public List<EventProducer> getExcludedEventProducers() throws SoCTraceException {
 		TraceDBObject traceDB = new TraceDBObject(timeFilterParameters.getTrace().getDbName(), DBMode.DB_OPEN);
-		List<EventProducer> eeplist = new ArrayList<EventProducer>();
-		eeplist.addAll(getAllEventProducers());
+		if (!hasValues()) {
+			BitSet ids = getIncludedEventProducerIds(traceDB);
+			traceDB.close();
+			return filterEventProducers(ids, false);
+		}
 		EventQuery eventQuery = new EventQuery(traceDB);
 		LogicalCondition where = new LogicalCondition(LogicalOperation.AND);
 		where.addCondition(new SimpleCondition("TIMESTAMP", ComparisonOperation.GE, String.valueOf(timeFilterParameters.getTimeRegion().getTimeStampStart())));
@@ -137,23 +165,21 @@ public class Queries {
 
 			}
 		}
-		for (Event e : elist) {
-			for (EventProducer ep : eeplist) {
-				if (ep.getId() == e.getEventProducer().getId()) {
-					eeplist.remove(ep);
-					break;
-				}
-			}
-		}
-
+		BitSet ids = new BitSet();
+		for (Event e : elist)
+			ids.set(e.getEventProducer().getId());
 		traceDB.close();
-		return eeplist;
+		return filterEventProducers(ids, false);
 	}
 
 	public List<EventProducer> getExcludedEventProducersPerPage() throws SoCTraceException {
 		TraceDBObject traceDB = new TraceDBObject(timeFilterParameters.getTrace().getDbName(), DBMode.DB_OPEN);
-		List<EventProducer> eeplist = new ArrayList<EventProducer>();
-		eeplist.addAll(getAllEventProducers());
+		if (!hasValues()) {
+			BitSet ids = getIncludedEventProducerIds(traceDB);
+			traceDB.close();
+			return filterEventProducers(ids, false);
+		}
+		BitSet ids = new BitSet();
 		for (long i = 0; i <= traceDB.getMaxPage(); i++) {
 			EventQuery eventQuery = new EventQuery(traceDB);
 			LogicalCondition where = new LogicalCondition(LogicalOperation.AND);
@@ -180,17 +206,11 @@ public class Queries {
 
 				}
 			}
-			for (Event e : elist) {
-				for (EventProducer ep : eeplist) {
-					if (ep.getId() == e.getEventProducer().getId()) {
-						eeplist.remove(ep);
-						break;
-					}
-				}
-			}
+			for (Event e : elist)
+				ids.set(e.getEventProducer().getId());
 		}
 		traceDB.close();
-		return eeplist;
+		return filterEventProducers(ids, false);
 	}
 
 	public List<Event> getIncludedEvent() throws SoCTraceException {
@@ -225,7 +245,13 @@ public class Queries {
 
 	public List<EventProducer> getIncludedEventProducers() throws SoCTraceException {
 		TraceDBObject traceDB = new TraceDBObject(timeFilterParameters.getTrace().getDbName(), DBMode.DB_OPEN);
+		if (!hasValues()) {
+			BitSet ids = getIncludedEventProducerIds(traceDB);
+			traceDB.close();
+			return filterEventProducers(ids, true);
+		}
 		List<EventProducer> ieplist = new ArrayList<EventProducer>();
+		BitSet ids = new BitSet();
 		EventQuery eventQuery = new EventQuery(traceDB);
 		LogicalCondition where = new LogicalCondition(LogicalOperation.AND);
 		where.addCondition(new SimpleCondition("TIMESTAMP", ComparisonOperation.GE, String.valueOf(timeFilterParameters.getTimeRegion().getTimeStampStart())));
@@ -251,8 +277,10 @@ public class Queries {
 			}
 		}
 		for (Event e : elist) {
-			if (!ieplist.contains(e.getEventProducer()))
+			if (!ids.get(e.getEventProducer().getId())) {
+				ids.set(e.getEventProducer().getId());
 				ieplist.add(e.getEventProducer());
+			}
 		}
 		traceDB.close();
 		return ieplist;
@@ -260,7 +288,13 @@ public class Queries {
 
 	public List<EventProducer> getIncludedEventProducersPerPage() throws SoCTraceException {
 		TraceDBObject traceDB = new TraceDBObject(timeFilterParameters.getTrace().getDbName(), DBMode.DB_OPEN);
+		if (!hasValues()) {
+			BitSet ids = getIncludedEventProducerIds(traceDB);
+			traceDB.close();
+			return filterEventProducers(ids, true);
+		}
 		List<EventProducer> ieplist = new ArrayList<EventProducer>();
+		BitSet ids = new BitSet();
 		for (long i = 0; i <= traceDB.getMaxPage(); i++) {
 			EventQuery eventQuery = new EventQuery(traceDB);
 			LogicalCondition where = new LogicalCondition(LogicalOperation.AND);
@@ -288,12 +322,70 @@ public class Queries {
 				}
 			}
 			for (Event e : elist) {
-				if (!ieplist.contains(e.getEventProducer()))
+				if (!ids.get(e.getEventProducer().getId())) {
+					ids.set(e.getEventProducer().getId());
 					ieplist.add(e.getEventProducer());
+				}
 			}
 		}
 		traceDB.close();
 		return ieplist;
 	}
 
+	private boolean hasValues() {
+		return timeFilterParameters.getValues() != null && timeFilterParameters.getValues().size() != 0;
+	}
+
+	/**
+	 * Ids of the producers having events in the time region, of the selected types. Only the
+	 * producer ids are read, with a single SELECT DISTINCT: use it when no value is filtered,
+	 * since values need the event parameters.
+	 */
+	private BitSet getIncludedEventProducerIds(TraceDBObject traceDB) throws SoCTraceException {
+		StringBuilder query = new StringBuilder("SELECT DISTINCT EVENT_PRODUCER_ID FROM " + FramesocTable.EVENT);
+		query.append(" WHERE TIMESTAMP >= " + timeFilterParameters.getTimeRegion().getTimeStampStart());
+		query.append(" AND TIMESTAMP <= " + timeFilterParameters.getTimeRegion().getTimeStampEnd());
+		if (timeFilterParameters.getEventTypes() != null) {
+			if (timeFilterParameters.getEventTypes().size() != 0) {
+				final ValueListString vls = new ValueListString();
+				for (final EventType et : timeFilterParameters.getEventTypes())
+					vls.addValue(String.valueOf(et.getId()));
+				query.append(" AND EVENT_TYPE_ID IN " + vls.getValueString());
+			}
+		}
+		BitSet ids = new BitSet();
+		Statement stm = null;
+		ResultSet rs = null;
+		try {
+			stm = traceDB.getConnection().createStatement();
+			rs = stm.executeQuery(query.toString());
+			while (rs.next())
+				ids.set(rs.getInt(1));
+		} catch (SQLException e) {
+			throw new SoCTraceException(e);
+		} finally {
+			try {
+				if (rs != null)
+					rs.close();
+				if (stm != null)
+					stm.close();
+			} catch (SQLException e) {
+				throw new SoCTraceException(e);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Producers of the trace whose id is (included) or is not (excluded) in the given set.
+	 */
+	private List<EventProducer> filterEventProducers(BitSet ids, boolean included) throws SoCTraceException {
+		List<EventProducer> eplist = new ArrayList<EventProducer>();
+		for (EventProducer ep : getAllEventProducers()) {
+			if (ids.get(ep.getId()) == included)
+				eplist.add(ep);
+		}
+		return eplist;
+	}
+
 }
@@ -56,4 +56,11 @@ public class TimeFilter {
 			results.saveEventProducerSearchResult();
 	}
 
+	/**
+	 * Release the event index kept for the next filters.
+	 */
+	public void dispose() {
+		EventIndex.clear();
+	}
+
 }
@@ -511,6 +511,12 @@ public class FilterView extends ViewPart {
 		params.setValues(idles);
 	}
 
+	@Override
+	public void dispose() {
+		timeFilter.dispose();
+		super.dispose();
+	}
+
 	@Override
 	public void setFocus() {
 		// TODO Auto-generated method stub
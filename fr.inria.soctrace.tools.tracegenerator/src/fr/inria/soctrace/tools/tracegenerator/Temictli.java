@@ -33,6 +33,7 @@ public class Temictli extends FramesocTool {
 	private String configFile;
 	private final String CatSeparator = "#";
 	private final String CSVDelimiter = ";";
+	private final String TemplateKeyword = "Template";
 	public static final int NumberOfEventInCommit = 20000;
 
 	private static final boolean PRINT_TIME = true;
@@ -123,18 +124,30 @@ public class Temictli extends FramesocTool {
 
 					String[] header = line.split(CSVDelimiter);
 					TraceGenConfig aConfig = new TraceGenConfig();
-					String[] cats = header[0].split(CatSeparator);
-					for (String aCat : cats) {
-						aConfig.getCategories().add(stringToCategory(aCat));
-					}
+					TraceTemplate aTemplate = null;
+					if (header[0].equals(TemplateKeyword)) {
+						aConfig.setTemplateTrace(header[1]);
+						aConfig.setScaleFactor(Integer.valueOf(header[2]));
+						aConfig.setForceIndex(Boolean.valueOf(header[3]));
+						aConfig.setNumberOfRuns(Integer.valueOf(header[4]));
+						monitor.subTask("Reading template trace " + aConfig.getTemplateTrace());
+						aTemplate = TraceTemplate.load(aConfig.getTemplateTrace());
+						aConfig.setNumberOfEvents(aTemplate.getNumberOfEvents()
+								* aConfig.getScaleFactor());
+					} else {
+						String[] cats = header[0].split(CatSeparator);
+						for (String aCat : cats) {
+							aConfig.getCategories().add(stringToCategory(aCat));
+						}
 
-					aConfig.setNumberOfEventType(Integer.valueOf(header[1]));
-					aConfig.setNumberOfProducers(Integer.valueOf(header[2]));
-					aConfig.setNumberOfLeaves(Integer.valueOf(header[3]));
-					aConfig.setOnlyLeavesAsProducer(Boolean.valueOf(header[4]));
-					aConfig.setNumberOfEvents(Long.valueOf(header[5]));
-					aConfig.setForceIndex(Boolean.valueOf(header[6]));
-					aConfig.setNumberOfRuns(Integer.valueOf(header[7]));
+						aConfig.setNumberOfEventType(Integer.valueOf(header[1]));
+						aConfig.setNumberOfProducers(Integer.valueOf(header[2]));
+						aConfig.setNumberOfLeaves(Integer.valueOf(header[3]));
+						aConfig.setOnlyLeavesAsProducer(Boolean.valueOf(header[4]));
+						aConfig.setNumberOfEvents(Long.valueOf(header[5]));
+						aConfig.setForceIndex(Boolean.valueOf(header[6]));
+						aConfig.setNumberOfRuns(Integer.valueOf(header[7]));
+					}
 
 					if (monitor.isCanceled()) {
 						bufFileReader.close();
@@ -146,8 +159,13 @@ public class Temictli extends FramesocTool {
 					monitor.beginTask("Generating trace", numberOfWork);
 
 					for (int i = 0; i < aConfig.getNumberOfRuns(); i++) {
-						aGenerator.setTraceConfig(aConfig,
-								"virtualTrace_" + System.currentTimeMillis());
+						String traceName = "virtualTrace_" + System.currentTimeMillis();
+						if (aTemplate != null) {
+							aGenerator.setTraceTemplate(aTemplate, aConfig.getScaleFactor(),
+									aConfig.isForceIndex(), traceName);
+						} else {
+							aGenerator.setTraceConfig(aConfig, traceName);
+						}
 						DeltaManager dm = new DeltaManager();
 						dm.start();
 						aGenerator.generateTrace(monitor);
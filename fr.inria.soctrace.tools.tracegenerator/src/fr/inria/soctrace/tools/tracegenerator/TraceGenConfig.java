@@ -12,6 +12,8 @@ public class TraceGenConfig {
 	private long numberOfEvents;
 	private boolean forceIndex;
 	private int numberOfRuns;
+	private String templateTrace;
+	private int scaleFactor;
 
 	public TraceGenConfig() {
 		categories = new ArrayList<Integer>();
@@ -20,6 +22,8 @@ public class TraceGenConfig {
 		numberOfLeaves = 0;
 		onlyLeavesAsProducer = false;
 		numberOfEvents = 0;
+		templateTrace = null;
+		scaleFactor = 1;
 	}
 
 	public ArrayList<Integer> getCategories() {
@@ -86,4 +90,20 @@ public class TraceGenConfig {
 		this.numberOfRuns = numberOfRuns;
 	}
 
+	public String getTemplateTrace() {
+		return templateTrace;
+	}
+
+	public void setTemplateTrace(String templateTrace) {
+		this.templateTrace = templateTrace;
+	}
+
+	public int getScaleFactor() {
+		return scaleFactor;
+	}
+
+	public void setScaleFactor(int scaleFactor) {
+		this.scaleFactor = scaleFactor;
+	}
+
 }
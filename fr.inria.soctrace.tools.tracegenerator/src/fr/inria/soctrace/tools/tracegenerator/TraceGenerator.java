@@ -3,7 +3,9 @@ package fr.inria.soctrace.tools.tracegenerator;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import org.eclipse.core.runtime.Assert;
@@ -33,6 +35,8 @@ import fr.inria.soctrace.lib.storage.utils.SQLConstants.FramesocTable;
 import fr.inria.soctrace.lib.storage.SystemDBObject;
 import fr.inria.soctrace.lib.storage.TraceDBObject;
 import fr.inria.soctrace.lib.utils.IdManager;
+import fr.inria.soctrace.tools.tracegenerator.TraceTemplate.TemplateProducer;
+import fr.inria.soctrace.tools.tracegenerator.TraceTemplate.TemplateType;
 
 /**
  * Virtual importer writing into the DB a virtual trace whose parameters may be easily configured.
@@ -221,11 +225,26 @@ public class TraceGenerator {
 	 */
 	private long currentTimestamp = MIN_TIMESTAMP;
 
+	/**
+	 * Min timestamp of the generated trace (the template one when generating from a template)
+	 */
+	private long minTimestamp = MIN_TIMESTAMP;
+
 	/**
 	 * Force indexing even if disabled in config file
 	 */
 	private boolean forceIndex = false;
 
+	/**
+	 * Template trace statistics (null if the trace is generated from the counts)
+	 */
+	private TraceTemplate template = null;
+
+	/**
+	 * Number of copies of the template producer hierarchy
+	 */
+	private int scaleFactor = 1;
+
 	/**
 	 * Import a virtual trace into a trace DB according to the constants set.
 	 * 
@@ -248,43 +267,49 @@ public class TraceGenerator {
 
 		Random rand = new Random();
 
-		monitor.subTask("Generating event types");
 		int i = 0;
 
-		// Create event types
-		for (i = 0; i < numberOfEventType; i++) {
-			// Spread them uniformly between the possible categories
-			int category = categories.get(i % categories.size());
-			EventType aType = createTypes(traceDB, category, etIdManager, eptIdManager);
-			typesList.add(aType);
-		}
+		if (template != null) {
+			monitor.subTask("Generating trace from template " + template.getDbName());
+			createFromTemplate(etIdManager, eptIdManager, eIdManager, epIdManager,
+					producerIdManager, monitor);
+		} else {
+			monitor.subTask("Generating event types");
+
+			// Create event types
+			for (i = 0; i < numberOfEventType; i++) {
+				// Spread them uniformly between the possible categories
+				int category = categories.get(i % categories.size());
+				EventType aType = createTypes(traceDB, category, etIdManager, eptIdManager);
+				typesList.add(aType);
+			}
 
-		monitor.subTask("Generating event producer");
-		// Set root producer with the ID: -1
-		EventProducer root = createEventProd(-1, producerIdManager, traceDB);
-		
-		// Create non-leave producers
-		for (i = 0; i < numberOfProducers - numberOfLeaves; i++) {
-			createEventProd(root.getId(), producerIdManager, traceDB);
-		}
+			monitor.subTask("Generating event producer");
+			// Set root producer with the ID: -1
+			EventProducer root = createEventProd(-1, producerIdManager, traceDB);
 
-		int potentialParentsSize = producers.size();
-		
-		// Create leave producers
-		for (i = 0; i < numberOfLeaves; i++) {
-			// Randomize parent ID among producers (avoid to set root as
-			// parent)
-			int parentId = producers.get(
-					rand.nextInt(potentialParentsSize - 1) + 1).getId();
-
-			leaves.add(createEventProd(parentId, producerIdManager, traceDB));
-		}
-		
-		traceDB.commit();
+			// Create non-leave producers
+			for (i = 0; i < numberOfProducers - numberOfLeaves; i++) {
+				createEventProd(root.getId(), producerIdManager, traceDB);
+			}
+
+			int potentialParentsSize = producers.size();
 
-		monitor.subTask("Generating events");
-		// Create events
-		createEvent(eIdManager, epIdManager, monitor);
+			// Create leave producers
+			for (i = 0; i < numberOfLeaves; i++) {
+				// Randomize parent ID among producers (avoid to set root as
+				// parent)
+				int parentId = producers.get(rand.nextInt(potentialParentsSize - 1) + 1).getId();
+
+				leaves.add(createEventProd(parentId, producerIdManager, traceDB));
+			}
+
+			traceDB.commit();
+
+			monitor.subTask("Generating events");
+			// Create events
+			createEvent(eIdManager, epIdManager, monitor);
+		}
 
 		if (monitor.isCanceled()) {
 			traceDB.dropDatabase();
@@ -334,7 +359,7 @@ public class TraceGenerator {
 		t.setOperatingSystem(METADATA);
 		t.setOutputDevice(METADATA);
 		t.setProcessed(false);
-		t.setMinTimestamp(MIN_TIMESTAMP);
+		t.setMinTimestamp(minTimestamp);
 		t.setMaxTimestamp(maxTimeStamp);
 		t.setTimeUnit(TimeUnit.NANOSECONDS.getInt());
 		t.setTracedApplication(METADATA);
@@ -375,7 +400,8 @@ public class TraceGenerator {
 		Random rand = new Random();
 		List<EventProducer> eventProducers;
 		numberOfGeneratedEvents = 0l;
-		maxTimeStamp = MIN_TIMESTAMP;
+		minTimestamp = MIN_TIMESTAMP;
+		maxTimeStamp = minTimestamp;
 
 		// Get the active events producers
 		if (onlyLeaveProducer) {
@@ -386,8 +412,8 @@ public class TraceGenerator {
 
 		// For each producer
 		for (EventProducer eProd : eventProducers) {
-			// Reset time at MIN_TIMESTAMP
-			currentTimestamp = MIN_TIMESTAMP;
+			// Reset time at the min timestamp
+			currentTimestamp = minTimestamp;
 
 			// Create "number of events / number of active producers" events
 			for (i = 0; i < numberOfEvents / eventProducers.size(); i++) {
@@ -510,10 +536,160 @@ public class TraceGenerator {
 		return e;
 	}
 	
+	/**
+	 * Generate types, producers and events reproducing the shape of the template trace.
+	 * 
+	 * The template producer hierarchy is replicated {@code scaleFactor} times, each copy producing
+	 * the same number of events as the original producer, with the same type mix, the same mean
+	 * rate over the same time span and durations drawn from the observed ones. The generated trace
+	 * is therefore {@code scaleFactor} times the size of the template.
+	 * 
+	 * @throws SoCTraceException
+	 */
+	private void createFromTemplate(IdManager etIdManager, IdManager eptIdManager,
+			IdManager eIdManager, IdManager epIdManager, IdManager producerIdManager,
+			IProgressMonitor monitor) throws SoCTraceException {
+		Random rand = new Random();
+		numberOfGeneratedEvents = 0l;
+		minTimestamp = template.getMinTimestamp();
+		maxTimeStamp = minTimestamp;
+
+		// template type id -> generated type
+		Map<Integer, EventType> typeMap = new HashMap<Integer, EventType>();
+		for (TemplateType tt : template.getTypes()) {
+			EventType et = createTypes(traceDB, tt.category, tt.name, etIdManager, eptIdManager);
+			typeMap.put(tt.id, et);
+			typesList.add(et);
+		}
+
+		List<TemplateProducer> tProducers = template.getProducers();
+		for (int copy = 0; copy < scaleFactor; copy++) {
+			// template producer id -> generated producer, for this copy
+			Map<Integer, EventProducer> prodMap = new HashMap<Integer, EventProducer>();
+			List<EventProducer> copyProducers = new ArrayList<EventProducer>();
+			for (TemplateProducer tp : tProducers) {
+				EventProducer parent = prodMap.get(tp.parentId);
+				EventProducer ep = createEventProd((parent == null) ? -1 : parent.getId(),
+						(scaleFactor > 1) ? tp.name + "_" + copy : tp.name, tp.type,
+						producerIdManager, traceDB);
+				prodMap.put(tp.id, ep);
+				copyProducers.add(ep);
+			}
+			traceDB.commit();
+
+			for (TemplateProducer tp : tProducers) {
+				EventProducer eProd = prodMap.get(tp.id);
+				currentTimestamp = tp.minTimestamp;
+				double meanGap = tp.getMeanGap();
+				for (long i = 0; i < tp.events; i++) {
+					int typeId = tp.sampleType(rand);
+					Event e = createTemplateEvent(typeMap.get(typeId), template.getType(typeId),
+							eProd, copyProducers, eIdManager, epIdManager, rand);
+					// exponential inter-arrival time keeping the producer mean rate: the
+					// observed mean gap already includes the state durations, so a state only
+					// delays the next event when it lasts longer than the drawn gap
+					long gap = (long) (-meanGap * Math.log(1.0 - rand.nextDouble()));
+					if (e.getCategory() == EventCategory.STATE) {
+						// states of the same producer do not overlap
+						long duration = ((State) e).getEndTimestamp() - e.getTimestamp();
+						gap = Math.max(gap, duration);
+					}
+					currentTimestamp += gap;
+
+					if (numberOfGeneratedEvents % Temictli.NumberOfEventInCommit == 0) {
+						if (monitor.isCanceled()) {
+							return;
+						}
+
+						traceDB.commit();
+						monitor.worked(1);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generate a new event of the given type, at the current timestamp, and save it
+	 * 
+	 * @param et
+	 *            the event type
+	 * @param tt
+	 *            the template type, giving the duration distribution
+	 * @param eProd
+	 *            the event producer of the event
+	 * @param linkTargets
+	 *            candidate end producers for links
+	 * @return the generated event
+	 * @throws SoCTraceException
+	 */
+	private Event createTemplateEvent(EventType et, TemplateType tt, EventProducer eProd,
+			List<EventProducer> linkTargets, IdManager eIdManager, IdManager epIdManager,
+			Random rand) throws SoCTraceException {
+		Event e = null;
+		long duration = tt.sampleDuration(rand);
+
+		switch (et.getCategory()) {
+		case EventCategory.PUNCTUAL_EVENT:
+			e = new PunctualEvent(eIdManager.getNextId());
+			break;
+		case EventCategory.STATE:
+			State s = new State(eIdManager.getNextId());
+			s.setEndTimestamp(currentTimestamp + duration);
+			s.setImbricationLevel(0);
+			e = s;
+			break;
+		case EventCategory.LINK:
+			Link l = new Link(eIdManager.getNextId());
+			l.setEndTimestamp(currentTimestamp + duration);
+			l.setEndProducer(linkTargets.get(rand.nextInt(linkTargets.size())));
+			e = l;
+			break;
+		case EventCategory.VARIABLE:
+			Variable v = new Variable(eIdManager.getNextId());
+			v.setEndTimestamp(0); // XXX
+			e = v;
+			break;
+		}
+
+		Assert.isNotNull(e, "Null event: wrong category");
+
+		e.setTimestamp(currentTimestamp);
+		e.setCategory(et.getCategory());
+		e.setType(et);
+		e.setEventProducer(eProd);
+		e.setCpu(CPU);
+		e.setPage(PAGE);
+		checkMaxTimestamp(currentTimestamp + duration);
+
+		for (EventParamType ept : e.getType().getEventParamTypes()) {
+			EventParam ep = new EventParam(epIdManager.getNextId());
+			ep.setEvent(e);
+			ep.setEventParamType(ept);
+			ep.setValue(PARAMETER_VALUE);
+			traceDB.save(ep);
+		}
+
+		traceDB.save(e);
+		numberOfGeneratedEvents++;
+		return e;
+	}
+
 	private EventType createTypes(TraceDBObject traceDB, int category, IdManager etIdManager,
 			IdManager eptIdManager) throws SoCTraceException {
+		return createTypes(traceDB, category, null, etIdManager, eptIdManager);
+	}
+
+	/**
+	 * Create an event type with the given name and save it
+	 * 
+	 * @param name
+	 *            the type name, or null to use the generated one
+	 */
+	private EventType createTypes(TraceDBObject traceDB, int category, String name,
+			IdManager etIdManager, IdManager eptIdManager) throws SoCTraceException {
 		EventType et = new EventType(etIdManager.getNextId(), category);
-		et.setName(TYPE_NAME_PREFIX + et.getId());
+		et.setName((name != null) ? name : TYPE_NAME_PREFIX + et.getId());
 		for (int j = 0; j < NUMBER_OF_PARAMETERS; j++) {
 			EventParamType ept = new EventParamType(eptIdManager.getNextId());
 			ept.setName(PARAMETER_NAME_PREFIX + ept.getId());
@@ -540,9 +716,30 @@ public class TraceGenerator {
 	public EventProducer createEventProd(int parentId,
 			IdManager producerIdManager, TraceDBObject traceDB)
 			throws SoCTraceException {
+		return createEventProd(parentId, null, NORMAL_PRODUCER_TYPE, producerIdManager, traceDB);
+	}
+
+	/**
+	 * Create an event producer with the given name and type
+	 * 
+	 * @param parentId
+	 *            the ID of the parent event producer
+	 * @param name
+	 *            the producer name, or null to use the generated one
+	 * @param type
+	 *            the producer type
+	 * @param producerIdManager
+	 *            the producer id manager to create the ID of the EP
+	 * @param traceDB
+	 *            the traceDBObject to save the EP
+	 * @return the event producer
+	 * @throws SoCTraceException
+	 */
+	public EventProducer createEventProd(int parentId, String name, String type,
+			IdManager producerIdManager, TraceDBObject traceDB) throws SoCTraceException {
 		EventProducer ep = new EventProducer(producerIdManager.getNextId());
-		ep.setName(PRODUCER_NAME_PREFIX + ep.getId());
-		ep.setType(NORMAL_PRODUCER_TYPE);
+		ep.setName((name != null) ? name : PRODUCER_NAME_PREFIX + ep.getId());
+		ep.setType(type);
 		ep.setLocalId(PRODUCER_LOCAL_ID_PREFIX + ep.getId());
 		ep.setParentId(parentId);
 		producers.add(ep);
@@ -572,6 +769,32 @@ public class TraceGenerator {
 		onlyLeaveProducer = aConfig.isOnlyLeavesAsProducer();
 		forceIndex = aConfig.isForceIndex();
 		numberOfCategories = categories.size();
+		template = null;
+		scaleFactor = 1;
+		dbName = aName;
+	}
+
+	/**
+	 * Configure the generator to produce a scaled copy of a template trace.
+	 * 
+	 * @param aTemplate
+	 *            statistics of the template trace
+	 * @param aScaleFactor
+	 *            number of copies of the template producer hierarchy
+	 * @param aForceIndex
+	 *            force indexing
+	 * @param aName
+	 *            DB name of the generated trace
+	 */
+	public void setTraceTemplate(TraceTemplate aTemplate, int aScaleFactor, boolean aForceIndex,
+			String aName) {
+		template = aTemplate;
+		scaleFactor = Math.max(1, aScaleFactor);
+		producers.clear();
+		leaves.clear();
+		typesList.clear();
+		numberOfEvents = template.getNumberOfEvents() * scaleFactor;
+		forceIndex = aForceIndex;
 		dbName = aName;
 	}
 
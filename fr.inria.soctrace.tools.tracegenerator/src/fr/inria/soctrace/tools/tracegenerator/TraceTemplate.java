@@ -0,0 +1,299 @@
+package fr.inria.soctrace.tools.tracegenerator;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.inria.soctrace.lib.model.utils.ModelConstants.EventCategory;
+import fr.inria.soctrace.lib.model.utils.SoCTraceException;
+import fr.inria.soctrace.lib.storage.DBObject;
+import fr.inria.soctrace.lib.storage.DBObject.DBMode;
+import fr.inria.soctrace.lib.storage.TraceDBObject;
+import fr.inria.soctrace.lib.storage.utils.SQLConstants.FramesocTable;
+
+/**
+ * Statistics of an existing trace, used by the {@link TraceGenerator} to produce a synthetic trace
+ * having the same shape as a real one.
+ *
+ * <pre>
+ * The following statistics are read from the trace DB:
+ * - the event types, with their category
+ * - the producer hierarchy, built on the EVENT_PRODUCER parent ids
+ * - for each producer, the number of events of each type and the time span covered
+ * - for each state and link type, a sample of the observed durations
+ * </pre>
+ *
+ * Durations are sampled using a reservoir of {@link #MAX_DURATION_SAMPLES} values per type, so
+ * the whole EVENT table is scanned only once without keeping it in memory.
+ */
+public class TraceTemplate {
+
+	private static final Logger logger = LoggerFactory.getLogger(TraceTemplate.class);
+
+	/**
+	 * Maximum number of duration samples kept for each type
+	 */
+	public final static int MAX_DURATION_SAMPLES = 1000;
+
+	/**
+	 * Template event type
+	 */
+	public static class TemplateType {
+		public int id;
+		public int category;
+		public String name;
+		// sorted duration samples (empty for punctual events and variables)
+		public long[] durations = new long[0];
+
+		/**
+		 * Draw a duration from the observed distribution.
+		 *
+		 * @param rand
+		 *            random number generator
+		 * @return a duration, or 0 if no duration has been observed for this type
+		 */
+		public long sampleDuration(Random rand) {
+			if (durations.length == 0)
+				return 0;
+			return durations[rand.nextInt(durations.length)];
+		}
+	}
+
+	/**
+	 * Template event producer
+	 */
+	public static class TemplateProducer {
+		public int id;
+		public int parentId;
+		public String name;
+		public String type;
+		public long events = 0;
+		public long minTimestamp = Long.MAX_VALUE;
+		public long maxTimestamp = Long.MIN_VALUE;
+		// type ids and cumulative number of events, for type mix sampling
+		private int[] typeIds = new int[0];
+		private long[] cumulative = new long[0];
+
+		/**
+		 * @return the mean time between two events of this producer
+		 */
+		public double getMeanGap() {
+			if (events <= 1)
+				return 1.0;
+			return Math.max(1.0, (double) (maxTimestamp - minTimestamp) / (events - 1));
+		}
+
+		/**
+		 * Draw a type id according to the type mix of this producer.
+		 *
+		 * @param rand
+		 *            random number generator
+		 * @return a type id
+		 */
+		public int sampleType(Random rand) {
+			long r = (long) (rand.nextDouble() * events);
+			int pos = Arrays.binarySearch(cumulative, r);
+			// first cumulative value strictly greater than r
+			pos = (pos >= 0) ? pos + 1 : -pos - 1;
+			return typeIds[Math.min(pos, typeIds.length - 1)];
+		}
+
+		private void addTypeCount(int typeId, long count) {
+			int n = typeIds.length;
+			typeIds = Arrays.copyOf(typeIds, n + 1);
+			cumulative = Arrays.copyOf(cumulative, n + 1);
+			typeIds[n] = typeId;
+			cumulative[n] = ((n == 0) ? 0 : cumulative[n - 1]) + count;
+		}
+	}
+
+	private String dbName;
+	private long minTimestamp = Long.MAX_VALUE;
+	private long maxTimestamp = Long.MIN_VALUE;
+	private long numberOfEvents = 0;
+	private Map<Integer, TemplateType> types = new LinkedHashMap<Integer, TemplateType>();
+	private Map<Integer, TemplateProducer> producers = new LinkedHashMap<Integer, TemplateProducer>();
+
+	/**
+	 * Read the statistics of the given trace.
+	 *
+	 * @param dbName
+	 *            trace DB name
+	 * @return the trace template
+	 * @throws SoCTraceException
+	 */
+	public static TraceTemplate load(String dbName) throws SoCTraceException {
+		TraceTemplate template = new TraceTemplate();
+		template.dbName = dbName;
+		TraceDBObject traceDB = null;
+		try {
+			traceDB = new TraceDBObject(dbName, DBMode.DB_OPEN);
+			Statement stm = traceDB.getConnection().createStatement();
+			template.loadTypes(stm);
+			template.loadProducers(stm);
+			template.loadEventCounts(stm);
+			template.loadDurations(stm);
+			stm.close();
+		} catch (SQLException e) {
+			throw new SoCTraceException(e);
+		} finally {
+			DBObject.finalClose(traceDB);
+		}
+		logger.debug("Template {}: {} types, {} producers, {} events", dbName,
+				template.types.size(), template.producers.size(), template.numberOfEvents);
+		return template;
+	}
+
+	public String getDbName() {
+		return dbName;
+	}
+
+	public long getMinTimestamp() {
+		return minTimestamp;
+	}
+
+	public long getMaxTimestamp() {
+		return maxTimestamp;
+	}
+
+	public long getNumberOfEvents() {
+		return numberOfEvents;
+	}
+
+	public List<TemplateType> getTypes() {
+		return new ArrayList<TemplateType>(types.values());
+	}
+
+	public TemplateType getType(int id) {
+		return types.get(id);
+	}
+
+	/**
+	 * @return the producers, parents always coming before their children
+	 */
+	public List<TemplateProducer> getProducers() {
+		List<TemplateProducer> sorted = new ArrayList<TemplateProducer>(producers.size());
+		Map<Integer, List<TemplateProducer>> children = new HashMap<Integer, List<TemplateProducer>>();
+		List<TemplateProducer> roots = new ArrayList<TemplateProducer>();
+		for (TemplateProducer p : producers.values()) {
+			if (!producers.containsKey(p.parentId)) {
+				roots.add(p);
+				continue;
+			}
+			if (!children.containsKey(p.parentId))
+				children.put(p.parentId, new ArrayList<TemplateProducer>());
+			children.get(p.parentId).add(p);
+		}
+		// breadth-first visit of the hierarchy
+		sorted.addAll(roots);
+		for (int i = 0; i < sorted.size(); i++) {
+			List<TemplateProducer> c = children.get(sorted.get(i).id);
+			if (c != null)
+				sorted.addAll(c);
+		}
+		return sorted;
+	}
+
+	private void loadTypes(Statement stm) throws SQLException {
+		ResultSet rs = stm.executeQuery("SELECT ID, CATEGORY, NAME FROM " + FramesocTable.EVENT_TYPE);
+		while (rs.next()) {
+			TemplateType t = new TemplateType();
+			t.id = rs.getInt(1);
+			t.category = rs.getInt(2);
+			t.name = rs.getString(3);
+			types.put(t.id, t);
+		}
+		rs.close();
+	}
+
+	private void loadProducers(Statement stm) throws SQLException {
+		ResultSet rs = stm.executeQuery("SELECT ID, PARENT_ID, NAME, TYPE FROM "
+				+ FramesocTable.EVENT_PRODUCER);
+		while (rs.next()) {
+			TemplateProducer p = new TemplateProducer();
+			p.id = rs.getInt(1);
+			p.parentId = rs.getInt(2);
+			p.name = rs.getString(3);
+			p.type = rs.getString(4);
+			producers.put(p.id, p);
+		}
+		rs.close();
+	}
+
+	private void loadEventCounts(Statement stm) throws SQLException {
+		ResultSet rs = stm.executeQuery("SELECT EVENT_PRODUCER_ID, EVENT_TYPE_ID, COUNT(*),"
+				+ " MIN(TIMESTAMP), MAX(TIMESTAMP) FROM " + FramesocTable.EVENT
+				+ " GROUP BY EVENT_PRODUCER_ID, EVENT_TYPE_ID");
+		while (rs.next()) {
+			TemplateProducer p = producers.get(rs.getInt(1));
+			int typeId = rs.getInt(2);
+			if (p == null || !types.containsKey(typeId)) {
+				logger.debug("Skipping events with unknown producer or type");
+				continue;
+			}
+			long count = rs.getLong(3);
+			long min = rs.getLong(4);
+			long max = rs.getLong(5);
+			p.addTypeCount(typeId, count);
+			p.events += count;
+			p.minTimestamp = Math.min(p.minTimestamp, min);
+			p.maxTimestamp = Math.max(p.maxTimestamp, max);
+			numberOfEvents += count;
+			minTimestamp = Math.min(minTimestamp, min);
+			maxTimestamp = Math.max(maxTimestamp, max);
+		}
+		rs.close();
+		if (numberOfEvents == 0) {
+			minTimestamp = 0;
+			maxTimestamp = 0;
+		}
+	}
+
+	private void loadDurations(Statement stm) throws SQLException {
+		Map<Integer, long[]> reservoirs = new HashMap<Integer, long[]>();
+		Map<Integer, Long> seen = new HashMap<Integer, Long>();
+		Random rand = new Random();
+		ResultSet rs = stm.executeQuery("SELECT EVENT_TYPE_ID, LPAR - TIMESTAMP FROM "
+				+ FramesocTable.EVENT + " WHERE CATEGORY = " + EventCategory.STATE
+				+ " OR CATEGORY = " + EventCategory.LINK);
+		while (rs.next()) {
+			int typeId = rs.getInt(1);
+			long duration = Math.max(0, rs.getLong(2));
+			long[] reservoir = reservoirs.get(typeId);
+			if (reservoir == null) {
+				reservoir = new long[MAX_DURATION_SAMPLES];
+				reservoirs.put(typeId, reservoir);
+				seen.put(typeId, 0L);
+			}
+			long n = seen.get(typeId);
+			if (n < MAX_DURATION_SAMPLES) {
+				reservoir[(int) n] = duration;
+			} else {
+				long r = (long) (rand.nextDouble() * (n + 1));
+				if (r < MAX_DURATION_SAMPLES)
+					reservoir[(int) r] = duration;
+			}
+			seen.put(typeId, n + 1);
+		}
+		rs.close();
+		for (Map.Entry<Integer, long[]> entry : reservoirs.entrySet()) {
+			TemplateType t = types.get(entry.getKey());
+			if (t == null)
+				continue;
+			int size = (int) Math.min(MAX_DURATION_SAMPLES, seen.get(entry.getKey()));
+			t.durations = Arrays.copyOf(entry.getValue(), size);
+			Arrays.sort(t.durations);
+		}
+	}
+
+}